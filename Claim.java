@@ -0,0 +1,88 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class describes a set claimed by a player: the slots with the player's tokens and the cards in them, as
+ * read when the last token was placed.
+ *
+ * @inv slots and cards are parallel arrays sorted by slot
+ */
+public class Claim {
+
+    /**
+     * Orders claims by the time they were made, earliest first.
+     */
+    public static final Comparator<Claim> BY_TIME =
+            (first, second) -> Long.compare(first.nanoTime - second.nanoTime, 0);
+
+    /**
+     * The player making the claim.
+     */
+    private final Player player;
+
+    /**
+     * The time the last token of the claim was placed, as given by System.nanoTime().
+     */
+    private final long nanoTime;
+
+    /**
+     * The slots of the claimed cards, in increasing order.
+     */
+    private final int[] slots;
+
+    /**
+     * The claimed cards, by slot.
+     */
+    private final int[] cards;
+
+    /**
+     * The class constructor.
+     *
+     * @param player   - the player making the claim.
+     * @param nanoTime - the time the last token of the claim was placed.
+     * @param slots    - the slots with the player's tokens, in increasing order.
+     * @param cards    - the cards in these slots.
+     */
+    public Claim(Player player, long nanoTime, int[] slots, int[] cards) {
+        this.player = player;
+        this.nanoTime = nanoTime;
+        this.slots = slots.clone();
+        this.cards = cards.clone();
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    public int[] getSlots() {
+        return slots.clone();
+    }
+
+    public int[] getCards() {
+        return cards.clone();
+    }
+
+    /**
+     * @param board - a snapshot of the table.
+     * @return      - true iff on this board the player has tokens on exactly the claimed cards, in the same slots.
+     */
+    public boolean holds(TableSnapshot board) {
+        if (board.countTokens(player.id) != slots.length)
+            return false;
+        for (int i = 0; i < slots.length; i++)
+            if (!board.hasToken(player.id, slots[i]) || board.cardAt(slots[i]) != cards[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "player " + player.id + " slots: " + Arrays.toString(slots) + " cards: " + Arrays.toString(cards);
+    }
+}
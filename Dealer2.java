@@ -3,8 +3,9 @@ import java.util.*;
 
 import bguspl.set.Env;
 
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class manages the dealer's threads and data
@@ -23,9 +24,19 @@ public class Dealer implements Runnable {
     private final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The cards that are left in the dealer's deck.
      */
-    private final List<Integer> deck;
+    private final Deck deck;
+
+    /**
+     * All the legal sets of the deck, shared with the table.
+     */
+    private final SetCatalogue catalogue;
+
+    /**
+     * Tracks the legal sets that can still be formed from the deck and the table.
+     */
+    private final RemainingSets remainingSets;
 
     /**
      * True iff game should be terminated.
@@ -37,22 +48,93 @@ public class Dealer implements Runnable {
      */
     private long reshuffleTime = Long.MAX_VALUE;
 
+    /**
+     * The time between two updates of the countdown display, outside and inside the warning window.
+     */
+    private static final long DISPLAY_TICK_MILLIS = 1000;
+    private static final long WARNING_TICK_MILLIS = 10;
+
+    /**
+     * The dealer thread (null until it starts), parked between events.
+     */
+    private volatile Thread dealerThread;
+
+    /**
+     * True iff a player queued a claim since the dealer last woke up.
+     */
+    private volatile boolean claimPending;
+
+    /**
+     * Wakes the dealer up when it runs on a shared scheduler (null if none).
+     */
+    private volatile Runnable onWakeUp;
+
+    /**
+     * True iff the cards of the current turn were dealt and the turn did not end yet.
+     */
+    private boolean turnStarted;
+
+    /**
+     * The claims of the players, waiting to be verified.
+     */
+    private final Queue<Claim> claims;
+
+    /**
+     * Statistics of the time from a claim to its verdict (written by the dealer thread only).
+     */
+    private volatile long verdicts;
+    private volatile long totalVerdictNanos;
+    private volatile long maxVerdictNanos;
+
+    /**
+     * True iff the dealer deals a card completing a set when the board would have none.
+     */
+    private volatile boolean smartDealing;
+
+    /**
+     * True iff the dealer reshuffles as soon as the board has no legal set, instead of waiting for the countdown.
+     */
+    private volatile boolean earlyReshuffle;
+
+    /**
+     * Statistics of the dealing (written by the dealer thread only).
+     */
+    private volatile long smartDeals;
+    private volatile long reshuffles;
+    private volatile long earlyReshuffles;
+    private volatile long savedWaitMillis;
+
     protected long timeLeft;
-    public Queue<Player> playersQueue;
-    public Object isThereSet;
 
 
 
 
     public Dealer(Env env, Table table, Player[] players) {
+        this(env, table, players, new Random());
+    }
+
+    /**
+     * Constructor for a reproducible game.
+     *
+     * @param env     - the environment object.
+     * @param table   - the table object.
+     * @param players - the players of the game.
+     * @param seed    - the seed of the random number generator drawing the cards.
+     */
+    public Dealer(Env env, Table table, Player[] players, long seed) {
+        this(env, table, players, new Random(seed));
+    }
+
+    private Dealer(Env env, Table table, Player[] players, Random random) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
+        this.deck = new Deck(env.config.deckSize, random);
+        this.catalogue = SetCatalogue.of(env);
+        this.remainingSets = new RemainingSets(catalogue, env.config.deckSize);
         this.terminate = false;
         this.reshuffleTime = System.currentTimeMillis();
-        this.playersQueue = new LinkedList<>();
-        this.isThereSet = new Object();
+        this.claims = new ConcurrentLinkedQueue<>();
     }
 
     /**
@@ -62,6 +144,8 @@ public class Dealer implements Runnable {
     public void run() {
 
         env.logger.info("thread " + Thread.currentThread().getName() + " starting.");
+        this.dealerThread = Thread.currentThread();
+        table.ui.start();
         Thread [] threads = new Thread[players.length];
         int i = 0;
         for (Player player: players) {
@@ -69,32 +153,63 @@ public class Dealer implements Runnable {
             threads[i].start();
             i=i+1;
         }
-        while (!shouldFinish()) {
-            placeCardsOnTable();
-            timerLoop();
-            updateTimerDisplay(true);
-            removeAllCardsFromTable(); // all the cards are removed from the table
+        for (long delay = step(); delay >= 0; delay = step()) {
+            sleepUntilWokenOrTimeout(delay);
         }
-        announceWinners();
         env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
-        terminate();
 
 
     }
 
     /**
-     * The inner loop of the dealer thread that runs as long as the countdown did not time out.
+     * Performs the work of the dealer that is due now, without blocking: starts a turn, or handles the claims and
+     * the countdown of the current one, and ends the turn once the countdown did not time out (or, in early
+     * reshuffle mode, once the board has no legal set). Called in a loop by the dealer thread, or by a shared
+     * scheduler when the dealer has no thread of its own.
+     *
+     * @return - the time until the dealer has work again, unless a claim wakes it up, or -1 once the game is over.
      */
-    private void timerLoop() {
-        reshuffleTime = env.config.turnTimeoutMillis + System.currentTimeMillis();
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
-//      System.out.println("enters timerLoop while");
-            sleepUntilWokenOrTimeout();
-            updateTimerDisplay(false);
+    public long step() {
+        if (!this.turnStarted) {
+            if (shouldFinish()) {
+                announceWinners();
+                terminate();
+                return -1;
+            }
+            placeCardsOnTable();
+            reshuffleTime = env.config.turnTimeoutMillis + System.currentTimeMillis();
+            this.turnStarted = true;
+        } else {
+            this.claimPending = false;
             removeCardsFromTable();
-            // System.out.println("before placeCardsOnTable");
-            placeCardsOnTable(); // only in null
+            updateTimerDisplay(false);
+            placeCardsOnTable();
         }
+        if (turnOver()) {
+            updateTimerDisplay(true);
+            removeAllCardsFromTable(); // all the cards are removed from the table
+            this.reshuffles++;
+            this.turnStarted = false;
+            return 0;
+        }
+        return millisUntilNextTick();
+    }
+
+    /**
+     * @return - true iff the current turn should end: the game is terminated, the countdown timed out, or (in
+     *           early reshuffle mode) nobody can score on the board.
+     */
+    private boolean turnOver() {
+        if (terminate || System.currentTimeMillis() >= reshuffleTime) {
+            return true;
+        }
+        if (this.earlyReshuffle && !table.hasSets()) {
+            // nobody can score on this board: reshuffle now instead of waiting for the countdown
+            this.earlyReshuffles++;
+            this.savedWaitMillis += Math.max(reshuffleTime - System.currentTimeMillis(), 0);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -102,11 +217,15 @@ public class Dealer implements Runnable {
      */
     public void terminate() {//x
         this.terminate=true;
+        wakeUp();
+        table.ui.stop();
         for(int i = this.players.length - 1; i>=0 ; i--) {
             this.players[i].terminate();
             // terminate the player threads, and the dealer thread
         }
-        Thread.currentThread().interrupt();
+        if (this.dealerThread != null) {
+            Thread.currentThread().interrupt(); // not a thread of a shared scheduler
+        }
     }
 
     /**
@@ -119,110 +238,247 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || !remainingSets.hasSet();
     }
 
     /**
      * Checks cards should be removed from the table and removes them.
      */
     private void removeAllCardsFromTable() {
-        blockPlayersTokens();
         //System.out.println("removeCardsFromTable");
-        returnAllToDeck();
-        table.removeAllCardsFromTable();
+        for (int card : table.clearBoard())
+            returnToDeck(card);
         removeCardsFromTable();
         for(Player player : players){
             player.setsQueue.clear();
         }
-        unblockPlayersTokens();
     }
 
-    public void returnAllToDeck(){
-        Integer[] array =this.table.getSlotToCard();
-        for(Integer card: array){
-            if(card!=null){
-                this.deck.add(card);
+    /**
+     * Check if any cards can be removed from the deck and placed on the table.
+     */
+    private void placeCardsOnTable() {
+        if(!remainingSets.hasSet()){
+            terminate();
+        }
+        TableSnapshot board = this.table.snapshot();
+        int[] slots = new int[board.slots()];
+        int count = 0;
+        for (int slot = 0; slot < board.slots() && count < this.deck.size(); slot++){
+            if(board.cardAt(slot) == Table.EMPTY){
+                slots[count++] = slot;
             }
-
+        }
+        int[] cards = new int[count];
+        for (int i = 0; i < count; i++){
+            cards[i] = drawCard();
+        }
+        if (this.smartDealing && count > 0){
+            ensureSet(cardsKept(board, new BitSet()), cards);
+        }
+        if (count > 0){
+            this.table.placeCards(cards, Arrays.copyOf(slots, count));
         }
 
     }
 
     /**
-     * Check if any cards can be removed from the deck and placed on the table.
+     * Collects the cards that stay on the table while other slots are dealt.
+     *
+     * @param board    - the cards on the table.
+     * @param replaced - the slots whose cards are about to be replaced.
+     * @return         - the cards in all the other slots.
      */
-    private void placeCardsOnTable() {
-        blockPlayersTokens();
+    private int[] cardsKept(TableSnapshot board, BitSet replaced) {
+        int[] kept = new int[board.slots()];
+        int size = 0;
+        for (int slot = 0; slot < board.slots(); slot++){
+            if (board.cardAt(slot) != Table.EMPTY && !replaced.get(slot)){
+                kept[size++] = board.cardAt(slot);
+            }
+        }
+        return Arrays.copyOf(kept, size);
+    }
 
-        shuffleDeck();
-        if(env.util.findSets(deck, 1).size() == 0){
-            terminate();
+    /**
+     * If the board would have no legal set once the cards drawn are placed, replaces the last card drawn with a
+     * card of the deck that completes a legal set with the other cards (if there is one).
+     *
+     * @param kept  - the cards that stay on the table.
+     * @param cards - the cards drawn for the slots dealt (EMPTY for a slot left empty).
+     */
+    private void ensureSet(int[] kept, int[] cards) {
+        int last = cards.length - 1;
+        while (last >= 0 && cards[last] == Table.EMPTY){
+            last--;
+        }
+        if (last < 0){
+            return;
         }
-        int slot = 0;
-        for (int i = 0 ; i < this.table.grid.length; i++){
-            for(int j = 0; j < this.table.grid[i].length; j++){
-                if(!this.deck.isEmpty() && this.table.grid[i][j] == null){
-                    int card = this.deck.remove(0);
-                    this.table.grid[i][j] = card;
-                    this.table. placeCard(card, slot);
-                    slot++;
+        BitSet present = new BitSet(env.config.deckSize);
+        int[] pool = Arrays.copyOf(kept, kept.length + cards.length);
+        int size = kept.length;
+        for (int card : kept){
+            present.set(card);
+        }
+        for (int i = 0; i < cards.length; i++){
+            if (cards[i] != Table.EMPTY){
+                present.set(cards[i]);
+                if (i != last){
+                    pool[size++] = cards[i];
                 }
             }
         }
-        //     }
-        unblockPlayersTokens();
-
+        if (catalogue.hasSet(present)){
+            return;
+        }
+        int completion = findCompletion(pool, size);
+        if (completion != Table.EMPTY){
+            returnToDeck(cards[last]);
+            this.deck.remove(completion);
+            cards[last] = completion;
+            this.smartDeals++;
+        }
     }
 
-    private void placeSpecificCardOnTable(int row, int column){
-        //  System.out.println("placeSpecificCardOnTable");
-        int slot = column + this.table.grid[0].length * row;
-        if(!this.deck.isEmpty()){
-            int card = this.deck.remove(0);
-            this.table.placeCard(card, slot);
-            env.ui.placeCard(card, slot);
+    /**
+     * Looks for a card of the deck that forms a legal set with setSize() - 1 of the given cards, by computing the
+     * completion of every combination of them.
+     *
+     * @param pool - the cards to combine (all different).
+     * @param size - the number of cards to use from the beginning of the array.
+     * @return     - a card of the deck that completes a legal set, or Table.EMPTY if there is none.
+     */
+    private int findCompletion(int[] pool, int size) {
+        int need = table.setSize() - 1;
+        if (size < need){
+            return Table.EMPTY;
+        }
+        int[] index = new int[need];
+        int[] chosen = new int[need];
+        for (int i = 0; i < need; i++){
+            index[i] = i;
         }
+        while (true){
+            for (int i = 0; i < need; i++){
+                chosen[i] = pool[index[i]];
+            }
+            int card = catalogue.setFinder().complete(chosen, need);
+            if (card >= 0 && this.deck.contains(card)){
+                return card;
+            }
+            int i = need - 1;
+            while (i >= 0 && index[i] == size - need + i){
+                i--;
+            }
+            if (i < 0){
+                return Table.EMPTY;
+            }
+            index[i]++;
+            for (int j = i + 1; j < need; j++){
+                index[j] = index[j - 1] + 1;
+            }
+        }
+    }
 
+    /**
+     * Turns dealing cards that guarantee a legal set on the board on or off (off by default).
+     *
+     * @param enabled - true iff the dealer should deal a card completing a set when the board would have none.
+     */
+    public void setSmartDealing(boolean enabled){
+        this.smartDealing = enabled;
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * @return - the number of cards dealt to complete a set on a board that would have had none.
      */
-    private void sleepUntilWokenOrTimeout() {
-        //  System.out.println("enter sleepUntilWokenOrTimeout");
-//        long timeLeft = this.reshuffleTime-System.currentTimeMillis();
-//
-//        synchronized (this.isThereSet){
-//            try{
-//                while(this.playersQueue.isEmpty() || timeLeft>0) {
-//                    timeLeft--;
-//                    this.isThereSet.wait(1000);
-//                    updateTimerDisplay(false);
-//                    removeCardsFromTable();
-//
-//                }
-//            }catch(InterruptedException e){
-//                Thread.currentThread().interrupt();
-//            }
-//
-//        }
-        synchronized (this.isThereSet){
-            try{
-                //this.isThereSet.wait(10);
-                if(this.timeLeft >= this.env.config.turnTimeoutWarningMillis){
-                    this.isThereSet.wait(1000);
-                }
-                else{
-                    this.isThereSet.wait(10);
-                }
+    public long smartDeals(){
+        return this.smartDeals;
+    }
+
+    /**
+     * @return - the number of times all the cards were removed from the table and reshuffled into the deck.
+     */
+    public long reshuffles(){
+        return this.reshuffles;
+    }
+
+    /**
+     * Turns reshuffling as soon as the board has no legal set on or off (off by default).
+     *
+     * @param enabled - true iff the dealer should not wait for the countdown on a board without a legal set.
+     */
+    public void setEarlyReshuffle(boolean enabled){
+        this.earlyReshuffle = enabled;
+    }
 
-                removeCardsFromTable();
-            }catch(InterruptedException e){
-                Thread.currentThread().interrupt();
+    /**
+     * @return - the number of reshuffles done before the countdown ran out, because the board had no legal set.
+     */
+    public long earlyReshuffles(){
+        return this.earlyReshuffles;
+    }
+
+    /**
+     * @return - the total time left on the countdown when the dealer reshuffled early.
+     */
+    public long savedWaitMillis(){
+        return this.savedWaitMillis;
+    }
+
+    /**
+     * Sleep until the next event the dealer must handle: a claim, the next change of the countdown display, or the
+     * reshuffle time.
+     *
+     * @param millis - the time until the next change of the countdown display or the reshuffle time.
+     */
+    private void sleepUntilWokenOrTimeout(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (!this.claimPending && !this.terminate) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0) {
+                break;
             }
+            LockSupport.parkNanos(this, nanos);
+        }
+    }
 
+    /**
+     * @return - the time until the countdown display changes next (or the countdown enters the warning window).
+     */
+    private long millisUntilNextTick() {
+        long left = reshuffleTime - System.currentTimeMillis();
+        if (left <= 0) {
+            return 0;
+        }
+        if (left <= env.config.turnTimeoutWarningMillis) {
+            return Math.min(WARNING_TICK_MILLIS, left);
         }
+        long tick = left % DISPLAY_TICK_MILLIS == 0 ? DISPLAY_TICK_MILLIS : left % DISPLAY_TICK_MILLIS;
+        return Math.min(tick, left - env.config.turnTimeoutWarningMillis);
+    }
 
+    /**
+     * Wakes the dealer up to handle a claim (called by the players).
+     */
+    public void wakeUp() {
+        this.claimPending = true;
+        Thread thread = this.dealerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        } else if (this.onWakeUp != null) {
+            this.onWakeUp.run();
+        }
+    }
+
+    /**
+     * Sets how the dealer is woken up when it has no thread of its own (it runs on a shared scheduler).
+     *
+     * @param onWakeUp - runs the next step of the dealer as soon as possible.
+     */
+    public void setOnWakeUp(Runnable onWakeUp) {
+        this.onWakeUp = onWakeUp;
     }
 
     /**
@@ -287,98 +543,204 @@ public class Dealer implements Runnable {
 
 
     // The following methods are added for the purpose of the exercise.
-    protected boolean testSet(int[] cards) {//we added it
 
-        if(cards.length != 3) {
-            return false;
-        }
-        boolean isSet = env.util.testSet(cards);
-        //  System.out.println("player to testSet!" );
-        if(isSet) {
-            blockPlayersTokens();
-            for (int i = 0; i < 3; i++) {
-                int card = cards[i];
-                int slot = this.table.cardToSlot[card];
-                for (int row = 0; row < this.table.grid.length; row++) {
-                    for (int col = 0; col < this.table.grid[0].length; col++) {
-                        if (this.table.grid[row][col] == card) {
-                            table.removeCard(slot);
+    /**
+     * @param cards - the cards to check.
+     * @return      - true iff the cards form a legal set.
+     */
+    protected boolean testSet(int[] cards) {//we added it
+        return cards.length == table.setSize() && catalogue.setFinder().testSet(cards);
+    }
 
-                            if (!this.deck.isEmpty()) {
-                                placeSpecificCardOnTable(row, col);
-                            }
+    /**
+     * Removes a random card from the deck.
+     *
+     * @return - the card drawn.
+     * @pre    - the deck is not empty.
+     */
+    private int drawCard(){
+        return this.deck.draw();
+    }
 
-                        }
+    /**
+     * Puts a card back into the deck.
+     *
+     * @param card - the card to return.
+     */
+    private void returnToDeck(int card){
+        this.deck.returnCard(card);
+    }
+    /**
+     * Queues a claim for verification (called by the players).
+     *
+     * @param claim - the set claimed.
+     */
+    public void claimSet(Claim claim){
+        this.claims.add(claim);
+    }
 
-                    }
+    /**
+     * Verifies all the pending claims in one pass, against a single snapshot of the table, earliest first.
+     * A claim whose player no longer has tokens on exactly the claimed cards is dropped, and so is a claim that
+     * shares a card with an earlier legal set (the earliest claim wins). A player gets a single verdict per batch:
+     * the later claims of a player whose claim was judged are dropped. The cards of all the legal sets are then
+     * swapped out in one batch.
+     */
+    private void removeCardsFromTable(){
+        List<Claim> pending = new ArrayList<>();
+        for (Claim claim = this.claims.poll(); claim != null; claim = this.claims.poll()) {
+            pending.add(claim);
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        pending.sort(Claim.BY_TIME);
+        TableSnapshot board = this.table.snapshot();
+        BitSet taken = new BitSet(board.slots());
+        BitSet judged = new BitSet(this.players.length);
+        List<Claim> winners = new ArrayList<>();
+        for (Claim claim : pending) {
+            Player player = claim.getPlayer();
+            if (judged.get(player.id) || !claim.holds(board) || overlaps(claim, taken)) {
+                continue;
+            }
+            judged.set(player.id);
+            if (testSet(claim.getCards())) {
+                for (int slot : claim.getSlots()) {
+                    taken.set(slot);
                 }
+                winners.add(claim);
+            } else {
+                this.table.removeTokens(player.id);
+                player.setPenaltyToTrue();
+                recordVerdict(claim);
             }
-            unblockPlayersTokens();
-            return true;
         }
-
-        return false;
+        if (!winners.isEmpty()) {
+            commitSets(board, winners);
+        }
 
     }
 
-    private void shuffleDeck(){
-        Collections.shuffle(this.deck);
-    }
-    public void playerToQueue(Player player){
-        // System.out.println("player to Queue!" );
-        this.playersQueue.add(player);
+    private static boolean overlaps(Claim claim, BitSet taken) {
+        for (int slot : claim.getSlots()) {
+            if (taken.get(slot)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void removeCardsFromTable(){
-        Iterator<Player> iterator = this.playersQueue.iterator();
-        while (iterator.hasNext()) {
-
-            Player player = iterator.next();
-            List<Integer> tokens = this.table.playersToSlots[player.id];
-            if (tokens.size() == 3) {
-                int[] set = new int[3];
-                for (int i = 0; i < 3; i++) {
-                    set[i] = this.table.getCard(tokens.get(i));
+    /**
+     * Swaps out the cards of the legal sets found for cards from the deck. Each set is committed only if its slots
+     * still hold the cards it was verified against; the players keep playing meanwhile, and a set whose cards
+     * changed is dropped without a verdict.
+     *
+     * @param board   - the snapshot the sets were verified against.
+     * @param winners - the claims of the sets, without common slots.
+     */
+    private void commitSets(TableSnapshot board, List<Claim> winners) {
+        int[][] slots = new int[winners.size()][];
+        long[][] versions = new long[winners.size()][];
+        int[][] replacements = new int[winners.size()][];
+        for (int k = 0; k < winners.size(); k++) {
+            slots[k] = winners.get(k).getSlots();
+            versions[k] = new long[slots[k].length];
+            replacements[k] = new int[slots[k].length];
+            for (int i = 0; i < slots[k].length; i++) {
+                versions[k][i] = board.cardVersion(slots[k][i]);
+                replacements[k][i] = this.deck.isEmpty() ? Table.EMPTY : drawCard();
+            }
+        }
+        if (this.smartDealing) {
+            ensureSet(board, slots, replacements);
+        }
+        boolean[] committed = this.table.commitClaims(slots, versions, replacements);
+        boolean scored = false;
+        for (int k = 0; k < winners.size(); k++) {
+            Claim claim = winners.get(k);
+            if (committed[k]) {
+                for (int card : claim.getCards()) {
+                    remainingSets.remove(card);
                 }
-                if (testSet(set)) {
-                    player.setPointToTrue();
-                    updateTimerDisplay(true);
-
-
-                } else {
-                    blockPlayersTokens();
-                    List<Integer> tokensToRemove = this.table.playersToSlots[player.id];
-                    int[] intArray = new int[tokensToRemove.size()];
-                    for (int i = 0; i < tokensToRemove.size(); i++) {
-                        intArray[i] = tokensToRemove.get(i);
-                    }
-                    tokensToRemove.clear();
-                    for (int token : intArray) {
-                        this.table.removeToken(player.id, token);
+                claim.getPlayer().setPointToTrue();
+                recordVerdict(claim);
+                scored = true;
+            } else {
+                for (int card : replacements[k]) {
+                    if (card != Table.EMPTY) {
+                        returnToDeck(card);
                     }
-                    unblockPlayersTokens();
-                    player.setPenaltyToTrue();
                 }
-                iterator.remove();
-            } else {
-                iterator.remove();
             }
+        }
+        if (scored) {
+            updateTimerDisplay(true);
+        }
+    }
 
+    /**
+     * Applies smart dealing to the cards replacing the sets found, as if they were all dealt at once.
+     *
+     * @param board        - the snapshot the sets were verified against.
+     * @param slots        - the slots of every set.
+     * @param replacements - the cards drawn for these slots, replaced in place.
+     */
+    private void ensureSet(TableSnapshot board, int[][] slots, int[][] replacements) {
+        BitSet replaced = new BitSet(board.slots());
+        int count = 0;
+        for (int[] claim : slots) {
+            for (int slot : claim) {
+                replaced.set(slot);
+            }
+            count += claim.length;
         }
+        int[] cards = new int[count];
+        int next = 0;
+        for (int[] claim : replacements) {
+            System.arraycopy(claim, 0, cards, next, claim.length);
+            next += claim.length;
+        }
+        ensureSet(cardsKept(board, replaced), cards);
+        next = 0;
+        for (int[] claim : replacements) {
+            System.arraycopy(cards, next, claim, 0, claim.length);
+            next += claim.length;
+        }
+    }
 
+    /**
+     * Adds the time from a claim to its verdict to the statistics.
+     */
+    private void recordVerdict(Claim claim){
+        long latency = System.nanoTime() - claim.getNanoTime();
+        this.verdicts++;
+        this.totalVerdictNanos += latency;
+        this.maxVerdictNanos = Math.max(this.maxVerdictNanos, latency);
     }
 
-    private void blockPlayersTokens() {
-        for (int i = 0; i < players.length; i++) {
-            players[i].setLockTable(true);
-        }
+    /**
+     * @return - the number of claims that got a verdict.
+     */
+    public long verdicts(){
+        return this.verdicts;
     }
 
-    private void unblockPlayersTokens() {
-        for (int i = 0; i < players.length; i++) {
-            players[i].setLockTable(false);
-        }
+    /**
+     * @return - the average time from a claim to its verdict, in nanoseconds (0 if there was no verdict yet).
+     */
+    public long averageVerdictNanos(){
+        long count = this.verdicts;
+        return count == 0 ? 0 : this.totalVerdictNanos / count;
+    }
+
+    /**
+     * @return - the longest time from a claim to its verdict, in nanoseconds.
+     */
+    public long maxVerdictNanos(){
+        return this.maxVerdictNanos;
     }
 
 
+
 }
@@ -0,0 +1,148 @@
+package bguspl.set.ex;
+
+import java.util.Random;
+
+/**
+ * This class contains the cards that are left in the dealer's deck.
+ * The cards are kept in a permutation of all the card ids: the first size entries are in the deck and the rest
+ * were drawn. A card is drawn uniformly at random by one Fisher-Yates step (swapping a random card of the deck
+ * to its end), so the deck never needs a full shuffle, and returning or removing a specific card is a single swap.
+ *
+ * @inv cards[positions[card]] == card for every card
+ * @inv the card is in the deck iff positions[card] < size
+ */
+public class Deck {
+
+    /**
+     * A permutation of all the card ids; the cards in the deck come first.
+     */
+    private final int[] cards;
+
+    /**
+     * The index of every card in cards.
+     */
+    private final int[] positions;
+
+    /**
+     * The number of cards in the deck.
+     */
+    private int size;
+
+    /**
+     * The random number generator choosing the cards drawn.
+     */
+    private final Random random;
+
+    /**
+     * The class constructor.
+     *
+     * @param deckSize - the number of cards in the game (all of them start in the deck).
+     * @param random   - the random number generator choosing the cards drawn.
+     */
+    public Deck(int deckSize, Random random) {
+        this.cards = new int[deckSize];
+        this.positions = new int[deckSize];
+        for (int card = 0; card < deckSize; card++) {
+            cards[card] = card;
+            positions[card] = card;
+        }
+        this.size = deckSize;
+        this.random = random;
+    }
+
+    /**
+     * The class constructor, for a reproducible order of the cards drawn.
+     *
+     * @param deckSize - the number of cards in the game (all of them start in the deck).
+     * @param seed     - the seed of the random number generator choosing the cards drawn.
+     */
+    public Deck(int deckSize, long seed) {
+        this(deckSize, new Random(seed));
+    }
+
+    /**
+     * Reseeds the random number generator, so the cards drawn from now on are reproducible.
+     *
+     * @param seed - the new seed.
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * @return - the number of cards in the deck.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - true iff there are no cards in the deck.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param card - the card to look for.
+     * @return     - true iff the card is in the deck.
+     */
+    public boolean contains(int card) {
+        return positions[card] < size;
+    }
+
+    /**
+     * Removes a random card from the deck.
+     *
+     * @return - the card drawn.
+     * @pre    - the deck is not empty.
+     */
+    public int draw() {
+        if (size == 0)
+            throw new IllegalStateException("the deck is empty");
+        swap(random.nextInt(size), size - 1);
+        return cards[--size];
+    }
+
+    /**
+     * Removes a specific card from the deck.
+     *
+     * @param card - the card to remove.
+     * @return     - true iff the card was in the deck.
+     */
+    public boolean remove(int card) {
+        if (!contains(card))
+            return false;
+        swap(positions[card], --size);
+        return true;
+    }
+
+    /**
+     * Puts a card back into the deck.
+     *
+     * @param card - the card to return.
+     * @pre        - the card is not in the deck.
+     */
+    public void returnCard(int card) {
+        if (contains(card))
+            throw new IllegalArgumentException("card " + card + " is already in the deck");
+        swap(positions[card], size++);
+    }
+
+    /**
+     * @param index - the index of a card in the deck (0 <= index < size()).
+     * @return      - the card at this index, in no particular order.
+     */
+    public int cardAt(int index) {
+        return cards[index];
+    }
+
+    private void swap(int i, int j) {
+        int first = cards[i];
+        int second = cards[j];
+        cards[i] = second;
+        cards[j] = first;
+        positions[second] = i;
+        positions[first] = j;
+    }
+}
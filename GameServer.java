@@ -0,0 +1,265 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * This class runs many independent games (a table, its dealer and its players) in one process, on a bounded
+ * scheduler shared by all of them, instead of a thread per dealer and per player.
+ * Every dealer and every player is a task that performs the work due now through its step method and is scheduled
+ * again when it has work next; a claim schedules the dealer of its table at once. A task never runs concurrently
+ * with itself, and a task that fails ends its own game only. The user interface frames of the tables run on the
+ * same scheduler.
+ */
+public class GameServer {
+
+    /**
+     * The scheduler running the tasks of all the games.
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The games currently running, by id.
+     */
+    private final Map<Integer, Game> games = new ConcurrentHashMap<>();
+
+    /**
+     * The id of the next game.
+     */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * The class constructor.
+     *
+     * @param threads - the number of threads running all the games.
+     */
+    public GameServer(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "game-server-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts a new game.
+     *
+     * @param env - the environment of the game (its configuration and user interface).
+     * @return    - the id of the game.
+     */
+    public int addTable(Env env) {
+        return addTable(env, new Table(env), null);
+    }
+
+    /**
+     * Starts a new game with a reproducible order of the cards dealt.
+     *
+     * @param env  - the environment of the game (its configuration and user interface).
+     * @param seed - the seed of the random number generator drawing the cards.
+     * @return     - the id of the game.
+     */
+    public int addTable(Env env, long seed) {
+        return addTable(env, new Table(env), seed);
+    }
+
+    private int addTable(Env env, Table table, Long seed) {
+        int id = nextId.getAndIncrement();
+        Player[] players = new Player[env.config.players];
+        Dealer dealer = seed == null ? new Dealer(env, table, players) : new Dealer(env, table, players, seed);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+        Game game = new Game(id, env, table, dealer, players);
+        games.put(id, game);
+        game.start();
+        return id;
+    }
+
+    /**
+     * Terminates a game.
+     *
+     * @param id - the id of the game.
+     * @return   - true iff the game was running.
+     */
+    public boolean removeTable(int id) {
+        Game game = games.remove(id);
+        if (game == null)
+            return false;
+        game.stop();
+        return true;
+    }
+
+    /**
+     * @param id - the id of the game.
+     * @return   - the dealer of the game, or null if the game is not running.
+     */
+    public Dealer dealer(int id) {
+        Game game = games.get(id);
+        return game == null ? null : game.dealer;
+    }
+
+    /**
+     * @return - the number of games currently running.
+     */
+    public int tables() {
+        return games.size();
+    }
+
+    /**
+     * Terminates all the games and the scheduler.
+     */
+    public void shutdown() {
+        for (Integer id : games.keySet())
+            removeTable(id);
+        scheduler.shutdown();
+    }
+
+    /**
+     * This class holds the entities of a single game.
+     */
+    private final class Game {
+
+        private final int id;
+        private final Env env;
+        private final Table table;
+        private final Dealer dealer;
+        private final Player[] players;
+        private final Task dealerTask;
+        private final Task[] playerTasks;
+
+        Game(int id, Env env, Table table, Dealer dealer, Player[] players) {
+            this.id = id;
+            this.env = env;
+            this.table = table;
+            this.dealer = dealer;
+            this.players = players;
+            this.dealerTask = new Task(this, dealer::step);
+            this.playerTasks = new Task[players.length];
+            for (int i = 0; i < players.length; i++)
+                playerTasks[i] = new Task(this, players[i]::step);
+        }
+
+        void start() {
+            dealer.setOnWakeUp(() -> dealerTask.schedule(0));
+            for (int i = 0; i < players.length; i++) {
+                Task task = playerTasks[i];
+                players[i].setOnWakeUp(() -> task.schedule(0));
+            }
+            table.ui.start(scheduler);
+            dealerTask.schedule(0);
+            for (Task task : playerTasks)
+                task.schedule(0);
+        }
+
+        void stop() {
+            dealer.terminate();
+            dealerTask.cancel();
+            for (Task task : playerTasks)
+                task.cancel();
+        }
+
+        /**
+         * Called when the dealer is done (the game is over) or a task of the game failed.
+         */
+        void finished() {
+            if (games.remove(id, this))
+                stop();
+        }
+    }
+
+    /**
+     * This class runs the steps of a dealer or a player, one at a time, each when it is due.
+     */
+    private final class Task implements Runnable {
+
+        private final Game game;
+        private final LongSupplier step;
+
+        /**
+         * The next step scheduled (null if none), and whether the task was cancelled (guarded by this).
+         */
+        private ScheduledFuture<?> next;
+        private boolean cancelled;
+
+        /**
+         * Whether a step is running, and whether another one came due meanwhile (guarded by this). A step due during
+         * a step (a wake up) is run right after it, instead of holding a thread of the scheduler until it ends.
+         */
+        private boolean running;
+        private boolean rerun;
+
+        Task(Game game, LongSupplier step) {
+            this.game = game;
+            this.step = step;
+        }
+
+        /**
+         * Schedules the next step, unless one is already scheduled sooner.
+         *
+         * @param delayMillis - the time until the step (Player.NOT_DUE to wait for a wake up).
+         */
+        synchronized void schedule(long delayMillis) {
+            if (cancelled || delayMillis == Player.NOT_DUE
+                    || (next != null && next.getDelay(TimeUnit.MILLISECONDS) <= delayMillis))
+                return;
+            if (next != null)
+                next.cancel(false);
+            next = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (next != null)
+                next.cancel(false);
+            next = null;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                next = null;
+                if (running) {
+                    rerun = true;
+                    return;
+                }
+                running = true;
+            }
+            long delay;
+            boolean again = false;
+            try {
+                delay = step.getAsLong();
+            } catch (Throwable e) {
+                game.env.logger.log(Level.SEVERE, "game " + game.id + " failed", e);
+                game.finished();
+                return;
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    again = rerun;
+                    rerun = false;
+                }
+            }
+            if (again && delay >= 0)
+                delay = 0;
+            if (delay < 0) {
+                if (this == game.dealerTask)
+                    game.finished();
+                else
+                    cancel();
+                return;
+            }
+            schedule(delay);
+        }
+    }
+}
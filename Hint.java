@@ -0,0 +1,59 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * This class describes a legal set that is currently on the table.
+ *
+ * @inv slots, cards and features are parallel arrays sorted by slot
+ */
+public class Hint {
+
+    /**
+     * The slots of the cards of the set, in increasing order.
+     */
+    private final int[] slots;
+
+    /**
+     * The cards of the set, by slot.
+     */
+    private final int[] cards;
+
+    /**
+     * The features of every card of the set, by slot.
+     */
+    private final int[][] features;
+
+    /**
+     * The class constructor.
+     *
+     * @param slots    - the slots of the cards, in increasing order.
+     * @param cards    - the cards in these slots.
+     * @param features - the features of these cards.
+     */
+    public Hint(int[] slots, int[] cards, int[][] features) {
+        this.slots = slots;
+        this.cards = cards;
+        this.features = features;
+    }
+
+    public int[] getSlots() {
+        return slots.clone();
+    }
+
+    public int[] getCards() {
+        return cards.clone();
+    }
+
+    public int[][] getFeatures() {
+        int[][] copy = new int[features.length][];
+        for (int i = 0; i < features.length; i++)
+            copy[i] = features[i].clone();
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "slots: " + Arrays.toString(slots) + " features: " + Arrays.deepToString(features);
+    }
+}
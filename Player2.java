@@ -2,10 +2,10 @@ package bguspl.set.ex;
 
 import bguspl.set.Env;
 
-import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class manages the players' threads and data
@@ -62,10 +62,44 @@ public class Player implements Runnable {
 
     public ArrayBlockingQueue<Integer> setsQueue;
     public Boolean isFrozen;
-    public Boolean lockTable;
 
     protected int tokensCounter ;
 
+    /**
+     * The slots with the player's tokens and the cards in them, as last read from the table.
+     */
+    private final int[] tokenSlots;
+    private final int[] tokenCards;
+
+    /**
+     * The time the current freeze ends, when the player runs on a shared scheduler.
+     */
+    private long frozenUntil;
+
+    /**
+     * Whether the point that started the current freeze is shown in the ui when the freeze ends, as point() does.
+     */
+    private boolean scorePending;
+
+    /**
+     * When the player runs on a shared scheduler: the time between two key presses of a computer player, before
+     * handling the keys a human player pressed while a claim was being made, and between two updates of the
+     * freeze display.
+     */
+    public static final long AI_PRESS_MILLIS = 10;
+    public static final long KEY_POLL_MILLIS = 10;
+    private static final long FREEZE_TICK_MILLIS = 1000;
+
+    /**
+     * Returned by step() when the player has no work until it is woken up (a key pressed, a point or a penalty).
+     */
+    public static final long NOT_DUE = Long.MAX_VALUE;
+
+    /**
+     * Runs the next step of the player as soon as possible, when it runs on a shared scheduler (null otherwise).
+     */
+    private volatile Runnable onWakeUp;
+
 
     /**
      * The class constructor.
@@ -83,10 +117,11 @@ public class Player implements Runnable {
         this.id = id;
         this.human = human;
         this.terminate = false;
-        setsQueue = new ArrayBlockingQueue<Integer>(3);
+        setsQueue = new ArrayBlockingQueue<Integer>(table.setSize());
         this.isFrozen = false;
-        this.lockTable = false;
         this.tokensCounter = 0;
+        this.tokenSlots = new int[table.setSize()];
+        this.tokenCards = new int[table.setSize()];
     }
 
     /**
@@ -122,30 +157,16 @@ public class Player implements Runnable {
     public void treatSetQueue() {
 
         try{
-            if (!this.lockTable && !this.isFrozen) {
+            if (!this.isFrozen) {
                 Integer slot = this.setsQueue.take();
 
-                List<Integer> tokens = this.table.playersToSlots[this.id];
-                if (tokens.size() < 3 && !tokens.contains(slot)) {
-                    Integer card = this.table.getCard(slot);
-                    if (card != null) {
-                        //   System.out.println("slot: " + slot);
-                        table.placeToken(this.id, slot);
-                    }
-                } else {
-                    if (tokens.contains(slot)) {
-                        tokens.remove(slot);
-                        table.removeToken(this.id, slot);
-                    }
-                }
-                if (tokens.size() == 3) {
+                Claim claim = pressSlot(slot);
+                if (claim != null) {
                     this.isFrozen = true;
                     this.playerThread.sleep(100);
                     this.isFrozen = false;
-                    this.dealer.playerToQueue(this);
-                    synchronized (this.dealer.isThereSet) {
-                        this.dealer.isThereSet.notifyAll();
-                    }
+                    this.dealer.claimSet(claim);
+                    this.dealer.wakeUp();
                 }
 
             }
@@ -155,6 +176,97 @@ public class Player implements Runnable {
 
     }
 
+    /**
+     * Places or removes a token on a slot that was pressed.
+     *
+     * @param slot - the slot pressed.
+     * @return     - the claim of the player, if this press placed the last token of a set (null otherwise).
+     */
+    private Claim pressSlot(int slot) {
+        int tokens = this.table.countTokens(this.id);
+        if (tokens < table.setSize() && !this.table.hasToken(this.id, slot)) {
+            if (table.placeToken(this.id, slot)
+                    && this.table.readTokens(this.id, tokenSlots, tokenCards) == table.setSize()) {
+                return new Claim(this, System.nanoTime(), tokenSlots, tokenCards);
+            }
+        } else {
+            table.removeToken(this.id, slot);
+        }
+        return null;
+    }
+
+    /**
+     * Performs the work of the player that is due now, without blocking: serves a freeze, presses a key (for a
+     * computer player) and handles the keys pressed. Called by a shared scheduler instead of run(), when the
+     * player has no threads of its own; the freezes then end on time instead of sleeping.
+     *
+     * @return - the time until the player has work again, NOT_DUE if only once woken up, or -1 once the game is
+     *           terminated.
+     */
+    public long step() {
+        if (terminate) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (point) {
+            point = false;
+            scorePending = true;
+            freezeUntil(now + env.config.pointFreezeMillis);
+        } else if (penalty) {
+            penalty = false;
+            freezeUntil(now + env.config.penaltyFreezeMillis);
+        }
+        if (this.isFrozen) {
+            long left = this.frozenUntil - now;
+            if (left > 0) {
+                env.ui.setFreeze(id, left);
+                return Math.min(left, FREEZE_TICK_MILLIS);
+            }
+            this.isFrozen = false;
+            env.ui.setFreeze(id, 0);
+            if (scorePending) {
+                scorePending = false;
+                env.ui.setScore(id, ++score);
+            }
+        }
+        if (!human) {
+            keyPressed(ThreadLocalRandom.current().nextInt(env.config.tableSize));
+        }
+        for (Integer slot = this.setsQueue.poll(); slot != null; slot = this.setsQueue.poll()) {
+            Claim claim = pressSlot(slot);
+            if (claim != null) {
+                this.dealer.claimSet(claim);
+                this.dealer.wakeUp();
+                break;
+            }
+        }
+        if (!human) {
+            return AI_PRESS_MILLIS;
+        }
+        return this.setsQueue.isEmpty() ? NOT_DUE : KEY_POLL_MILLIS;
+    }
+
+    /**
+     * Sets how the player is woken up when it has no threads of its own (it runs on a shared scheduler).
+     *
+     * @param onWakeUp - runs the next step of the player as soon as possible.
+     */
+    public void setOnWakeUp(Runnable onWakeUp) {
+        this.onWakeUp = onWakeUp;
+    }
+
+    private void wakeUp() {
+        Runnable hook = this.onWakeUp;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private void freezeUntil(long time) {
+        this.isFrozen = true;
+        this.frozenUntil = time;
+    }
+
     /**
      * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
      * key presses. If the queue of key presses is full, the thread waits until it is not full.
@@ -196,11 +308,13 @@ public class Player implements Runnable {
      */
     public void terminate() {
         this.terminate = true;
-        if(!this.human){
+        if(!this.human && this.aiThread != null){
             this.aiThread.interrupt();
         }
         //else{
+        if (this.playerThread != null) {
             this.playerThread.interrupt();
+        }
         //}
 
     }
@@ -212,9 +326,9 @@ public class Player implements Runnable {
      */
     public void keyPressed(int slot) {
         try{
-            if(!this.lockTable && !this.isFrozen){
-                if(!this.table.removeToken(this.id, slot)){
-                    this.setsQueue.offer(slot);
+            if(!this.isFrozen){
+                if(!this.table.removeToken(this.id, slot) && this.setsQueue.offer(slot) && this.human){
+                    wakeUp();
                 }
             }
         }catch(Exception e){
@@ -292,8 +406,8 @@ public class Player implements Runnable {
 
     public int [] generateRandomNumber() {
         int [] randomSet = new int[2];
-        int a = (int) (Math.random() * table.grid.length);
-        int b = (int) (Math.random() * table.grid[0].length);
+        int a = (int) (Math.random() * env.config.rows);
+        int b = (int) (Math.random() * env.config.columns);
         randomSet[0] = a;
         randomSet[1] = b;
         return randomSet;
@@ -302,20 +416,19 @@ public class Player implements Runnable {
 
     public void setPointToTrue() {
         point = true;
+        wakeUp();
     }
 
     public void setPenaltyToTrue() {
         penalty = true;
+        wakeUp();
     }
 
-    public void setLockTable(boolean status){
-        this.lockTable = status;
-    }
     private void turnToSet(){
         if(!setsQueue.isEmpty()){
             Integer slot = this.setsQueue.remove();
-            if(table.slotToCard[slot] != null){
-                boolean isToken = table.playerPlacedToken[this.id][slot];
+            if(table.cardAt(slot) != Table.EMPTY){
+                boolean isToken = table.hasToken(this.id, slot);
                 if(isToken){
                     table.removeToken(this.id, slot);
                     tokensCounter = tokensCounter - 1;
@@ -0,0 +1,103 @@
+package bguspl.set.ex;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class tracks how many legal sets can still be formed from the cards that are in play (deck and table).
+ * Cards only leave play when they are collected as part of a legal set, so the count is updated incrementally,
+ * one removed card at a time, and the end of the game is detected in constant time.
+ * For a deck too large to catalogue there is no count to start from; a set that is still in play is kept as a
+ * witness instead, and a new one is searched for only when a card of the witness leaves play.
+ *
+ * @inv catalogued implies count == the number of legal sets whose cards are all in inPlay
+ * @inv witness == null or all the cards of witness are in inPlay
+ */
+public class RemainingSets {
+
+    /**
+     * All the legal sets of the deck.
+     */
+    private final SetCatalogue catalogue;
+
+    /**
+     * The cards that are still in play, as a bitset indexed by card id.
+     */
+    private final BitSet inPlay;
+
+    /**
+     * The number of legal sets that can be formed from the cards in play.
+     */
+    private int count;
+
+    /**
+     * Whether the sets of the deck are catalogued, and otherwise a legal set in play (null if none was found).
+     */
+    private final boolean catalogued;
+    private int[] witness;
+
+    /**
+     * The class constructor.
+     *
+     * @param catalogue - the set catalogue of the game.
+     * @param deckSize  - the number of cards in the game (all of them are in play).
+     */
+    public RemainingSets(SetCatalogue catalogue, int deckSize) {
+        this.catalogue = catalogue;
+        this.inPlay = new BitSet(deckSize);
+        this.inPlay.set(0, deckSize);
+        this.catalogued = catalogue.isCatalogued();
+        this.count = catalogued ? catalogue.size() : 0;
+        if (!catalogued)
+            findWitness();
+    }
+
+    private void findWitness() {
+        List<int[]> found = catalogue.findSets(inPlay, 1);
+        witness = found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Takes a card out of play and drops every set that contained it.
+     *
+     * @param card - the card leaving the game.
+     *
+     * @post - card is no longer in play.
+     */
+    public void remove(int card) {
+        if (!inPlay.get(card))
+            return;
+        inPlay.clear(card);
+        if (catalogued) {
+            count -= catalogue.countSetsWith(card, inPlay);
+        } else if (witness != null) {
+            for (int other : witness) {
+                if (other == card) {
+                    findWitness();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a legal set can still be formed from the cards in play.
+     *
+     * @return - true iff at least one legal set remains.
+     */
+    public boolean hasSet() {
+        return catalogued ? count > 0 : witness != null;
+    }
+
+    /**
+     * Count the legal sets that can still be formed from the cards in play.
+     * For a deck too large to catalogue, this enumerates all of them (in parallel above the parallel threshold).
+     *
+     * @return - the number of remaining sets.
+     */
+    public int count() {
+        if (catalogued)
+            return count;
+        return (int) catalogue.streamSets(inPlay).count();
+    }
+}
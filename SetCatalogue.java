@@ -0,0 +1,212 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * This class holds every legal set of a deck, computed once and shared by all the tables in the JVM.
+ * Queries check the per-card set lists against a bitset of the cards that are present, so no combinatorial
+ * search is needed after the catalogue is built.
+ * The number of sets grows quadratically with the deck, so only decks of up to MAX_CATALOGUED_CARDS cards are
+ * catalogued; for larger decks the same queries are answered by the set finder, which completes combinations of
+ * the present cards instead.
+ *
+ * @inv sets[i] is sorted in increasing order
+ * @inv i is in setsOfCard[card] iff card is in sets[i]
+ * @inv sets == null iff the deck has more than MAX_CATALOGUED_CARDS cards
+ */
+public class SetCatalogue {
+
+    /**
+     * The catalogues built so far, by deck configuration.
+     */
+    private static final Map<String, SetCatalogue> catalogues = new ConcurrentHashMap<>();
+
+    /**
+     * The largest deck whose sets are catalogued (the classic deck has 81 cards and 1080 sets).
+     */
+    public static final int MAX_CATALOGUED_CARDS = 1024;
+
+    /**
+     * Finds the card completing a set with any two cards.
+     */
+    private final SetFinder setFinder;
+
+    /**
+     * All the legal sets of the deck, each sorted by card id (null if the deck is too large to catalogue).
+     */
+    private final int[][] sets;
+
+    /**
+     * Mapping between a card and the indices of the sets that contain it.
+     */
+    private final int[][] setsOfCard;
+
+    /**
+     * The class constructor.
+     *
+     * @param setFinder - the set finder of the deck.
+     * @param deckSize  - the number of cards in the deck.
+     */
+    private SetCatalogue(SetFinder setFinder, int deckSize) {
+        this.setFinder = setFinder;
+        if (deckSize > MAX_CATALOGUED_CARDS) {
+            this.sets = null;
+            this.setsOfCard = null;
+            return;
+        }
+        BitSet deck = new BitSet(deckSize);
+        deck.set(0, deckSize);
+        List<int[]> all = setFinder.findSetsInParallel(deck, Integer.MAX_VALUE);
+        this.sets = all.toArray(new int[all.size()][]);
+        int[] counts = new int[deckSize];
+        for (int[] set : sets)
+            for (int card : set)
+                ++counts[card];
+        this.setsOfCard = new int[deckSize][];
+        for (int card = 0; card < deckSize; card++)
+            setsOfCard[card] = new int[counts[card]];
+        int[] filled = new int[deckSize];
+        for (int i = 0; i < sets.length; i++)
+            for (int card : sets[i])
+                setsOfCard[card][filled[card]++] = i;
+    }
+
+    /**
+     * Returns the catalogue of the deck configured in the environment, building it on first use.
+     *
+     * @param env - the game environment object.
+     * @return    - the shared catalogue.
+     */
+    public static SetCatalogue of(Env env) {
+        String key = env.config.featureSize + ":" + env.config.featureCount + ":" + env.config.deckSize;
+        return catalogues.computeIfAbsent(key, ignored -> new SetCatalogue(new SetFinder(env), env.config.deckSize));
+    }
+
+    /**
+     * Builds the catalogue of a deck without sharing it.
+     *
+     * @param setFinder - the set finder of the deck.
+     * @param deckSize  - the number of cards in the deck.
+     * @return          - a new catalogue.
+     */
+    static SetCatalogue of(SetFinder setFinder, int deckSize) {
+        return new SetCatalogue(setFinder, deckSize);
+    }
+
+    /**
+     * @return - the set finder of the deck.
+     */
+    public SetFinder setFinder() {
+        return setFinder;
+    }
+
+    /**
+     * @return - true iff the sets of the deck are catalogued (otherwise queries search with the set finder).
+     */
+    public boolean isCatalogued() {
+        return sets != null;
+    }
+
+    /**
+     * @return - the number of legal sets in the whole deck.
+     * @pre    - isCatalogued()
+     */
+    public int size() {
+        if (sets == null)
+            throw new IllegalStateException("the deck is too large to catalogue");
+        return sets.length;
+    }
+
+    /**
+     * Checks whether a legal set is fully contained in the present cards.
+     *
+     * @param set     - the index of the set.
+     * @param present - the cards that are present.
+     * @return        - true iff all the cards of the set are present.
+     */
+    private boolean isPresent(int set, BitSet present) {
+        for (int card : sets[set])
+            if (!present.get(card))
+                return false;
+        return true;
+    }
+
+    /**
+     * Count the legal sets among the present cards that contain the given card.
+     *
+     * @param card    - the card to look for.
+     * @param present - the cards that are present (card itself need not be).
+     * @return        - the number of sets containing the card whose other cards are present.
+     */
+    public int countSetsWith(int card, BitSet present) {
+        if (sets == null)
+            return setFinder.countSetsWith(card, present);
+        int count = 0;
+        for (int set : setsOfCard[card]) {
+            boolean complete = true;
+            for (int other : sets[set])
+                complete &= other == card || present.get(other);
+            if (complete)
+                ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the present cards contain at least one legal set.
+     *
+     * @param present - the cards that are present.
+     * @return        - true iff there is a legal set among the present cards.
+     */
+    public boolean hasSet(BitSet present) {
+        if (sets == null)
+            return setFinder.hasSet(present);
+        return !findSets(present, 1).isEmpty();
+    }
+
+    /**
+     * Finds legal sets among the present cards.
+     *
+     * @param present - the cards that are present.
+     * @param limit   - the maximal number of sets to return.
+     * @return        - the sets found, each sorted by card id.
+     */
+    public List<int[]> findSets(BitSet present, int limit) {
+        if (sets == null)
+            return setFinder.findSets(present, limit);
+        List<int[]> found = new ArrayList<>();
+        for (int card = present.nextSetBit(0); card >= 0 && found.size() < limit; card = present.nextSetBit(card + 1)) {
+            for (int set : setsOfCard[card]) {
+                if (sets[set][0] == card && isPresent(set, present)) {
+                    found.add(sets[set].clone());
+                    if (found.size() >= limit)
+                        break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Streams the legal sets among the present cards.
+     * Small boards are answered from the catalogue; boards above the parallel threshold are searched by the set
+     * finder on the common fork-join pool.
+     *
+     * @param present - the cards that are present (must not be modified while the stream is consumed).
+     * @return        - a lazily consumed stream of the sets found, each sorted by card id.
+     */
+    public Stream<int[]> streamSets(BitSet present) {
+        if (SetFinder.shouldParallelize(present))
+            return setFinder.streamSets(present, true);
+        if (sets == null)
+            return setFinder.streamSets(present, false);
+        return findSets(present, Integer.MAX_VALUE).stream();
+    }
+}
@@ -0,0 +1,483 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class finds legal sets of any number of features and values per feature.
+ * Each card's features are packed into a long, and the last card of a set is computed from the others: for every
+ * feature it either repeats the common value or takes the one value that is missing. A set has as many cards as
+ * there are values per feature, so the classic game (4 features, 3 values) completes every pair in O(1).
+ * At least three values per feature are needed: with two, any two cards would form a set and no card would be
+ * determined by the others.
+ *
+ * @inv codes[card] == encode(features of card)
+ * @inv cardOf(codes[card]) == card
+ */
+public class SetFinder {
+
+    /**
+     * Marks an empty entry of the reverse lookup table.
+     */
+    private static final long NO_CODE = -1L;
+
+    /**
+     * The default number of present cards from which searches run in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * The number of present cards from which searches run in parallel on the common fork-join pool.
+     */
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * The smallest limit for which findSetsInParallel searches in parallel; fewer sets are found sooner by a
+     * sequential search than by splitting the work.
+     */
+    public static final int MIN_PARALLEL_LIMIT = 1024;
+
+    /**
+     * The number of features of every card.
+     */
+    private final int featureCount;
+
+    /**
+     * The number of values per feature, which is also the number of cards in a set.
+     */
+    private final int featureSize;
+
+    /**
+     * The number of bits used to encode a single feature.
+     */
+    private final int bitsPerFeature;
+
+    /**
+     * The mask of a single encoded feature.
+     */
+    private final long featureMask;
+
+    /**
+     * Mapping between a card and its encoded features.
+     */
+    private final long[] codes;
+
+    /**
+     * Open addressing table of encoded features (NO_CODE if empty) and the cards that have them.
+     */
+    private final long[] lookupCodes;
+    private final int[] lookupCards;
+
+    /**
+     * The shift that maps a hashed code to an entry of the lookup table.
+     */
+    private final int lookupShift;
+
+    /**
+     * The class constructor.
+     *
+     * @param env - the game environment object.
+     */
+    public SetFinder(Env env) {
+        this(env.config.featureCount, env.config.featureSize, env.config.deckSize, env.util::cardToFeatures);
+    }
+
+    /**
+     * Constructor for a custom deck.
+     *
+     * @param featureCount - the number of features of every card.
+     * @param featureSize  - the number of values per feature.
+     * @param deckSize     - the number of cards in the deck.
+     * @param features     - mapping between a card and its features.
+     */
+    public SetFinder(int featureCount, int featureSize, int deckSize, IntFunction<int[]> features) {
+        if (featureSize < 3 || featureSize > Long.SIZE)
+            throw new IllegalArgumentException("unsupported number of values per feature: " + featureSize);
+        this.featureCount = featureCount;
+        this.featureSize = featureSize;
+        this.bitsPerFeature = 32 - Integer.numberOfLeadingZeros(featureSize - 1);
+        if (featureCount * bitsPerFeature > Long.SIZE - 1)
+            throw new IllegalArgumentException("too many features to encode: " + featureCount);
+        this.featureMask = (1L << bitsPerFeature) - 1;
+
+        this.codes = new long[deckSize];
+        int capacity = Integer.highestOneBit(Math.max(deckSize, 1) * 2 - 1) * 2;
+        this.lookupCodes = new long[capacity];
+        this.lookupCards = new int[capacity];
+        this.lookupShift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(lookupCodes, NO_CODE);
+        for (int card = 0; card < deckSize; card++) {
+            long code = encode(features.apply(card));
+            codes[card] = code;
+            int index = indexOf(code);
+            lookupCodes[index] = code;
+            lookupCards[index] = card;
+        }
+    }
+
+    /**
+     * Creates a set finder for the full deck in which card ids are the features written in base featureSize.
+     *
+     * @param featureCount - the number of features of every card.
+     * @param featureSize  - the number of values per feature.
+     * @return             - the set finder of a deck of featureSize^featureCount cards.
+     */
+    public static SetFinder fullDeck(int featureCount, int featureSize) {
+        int deckSize = (int) Math.pow(featureSize, featureCount);
+        return new SetFinder(featureCount, featureSize, deckSize, card -> {
+            int[] features = new int[featureCount];
+            for (int i = featureCount - 1; i >= 0; i--) {
+                features[i] = card % featureSize;
+                card /= featureSize;
+            }
+            return features;
+        });
+    }
+
+    /**
+     * Sets the number of present cards from which searches run in parallel.
+     *
+     * @param threshold - the minimal number of cards (Integer.MAX_VALUE to never run in parallel).
+     */
+    public static void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Checks whether a search among the present cards is large enough to run in parallel.
+     *
+     * @param present - the cards to search in.
+     * @return        - true iff there are at least as many cards as the parallel threshold.
+     */
+    public static boolean shouldParallelize(BitSet present) {
+        return present.cardinality() >= parallelThreshold;
+    }
+
+    /**
+     * @return - the number of cards in a legal set.
+     */
+    public int setSize() {
+        return featureSize;
+    }
+
+    private long encode(int[] features) {
+        long code = 0;
+        for (int i = 0; i < featureCount; i++)
+            code |= (long) features[i] << (bitsPerFeature * i);
+        return code;
+    }
+
+    private int feature(long code, int feature) {
+        return (int) ((code >>> (bitsPerFeature * feature)) & featureMask);
+    }
+
+    /**
+     * Finds the entry of the lookup table that holds the code, or the empty entry where it belongs.
+     */
+    private int indexOf(long code) {
+        int mask = lookupCodes.length - 1;
+        int index = (int) ((code * 0x9E3779B97F4A7C15L) >>> lookupShift);
+        while (lookupCodes[index] != NO_CODE && lookupCodes[index] != code)
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    private int cardOf(long code) {
+        int index = indexOf(code);
+        return lookupCodes[index] == code ? lookupCards[index] : -1;
+    }
+
+    /**
+     * Computes the only card that forms a legal set together with two given cards, when sets have three cards.
+     *
+     * @param first  - the first card.
+     * @param second - the second card.
+     * @return       - the completing card, or -1 if there is none in the deck.
+     * @pre          - setSize() == 3
+     */
+    private int completePair(int first, int second) {
+        long a = codes[first];
+        long b = codes[second];
+        long code = 0;
+        for (int i = 0; i < featureCount; i++) {
+            int shift = bitsPerFeature * i;
+            long sum = ((a >>> shift) & featureMask) + ((b >>> shift) & featureMask);
+            code |= ((2 * 3 - sum) % 3) << shift;
+        }
+        return cardOf(code);
+    }
+
+    /**
+     * Computes the only card that forms a legal set together with the given cards.
+     *
+     * @param cards - setSize() - 1 different cards.
+     * @param count - the number of cards to use from the beginning of the array.
+     * @return      - the completing card, or -1 if the cards cannot be completed to a set.
+     */
+    public int complete(int[] cards, int count) {
+        if (count != featureSize - 1)
+            throw new IllegalArgumentException("a set is completed from " + (featureSize - 1) + " cards, got " + count);
+        if (featureSize == 3)
+            return completePair(cards[0], cards[1]);
+        long code = 0;
+        for (int i = 0; i < featureCount; i++) {
+            long seen = 0;
+            int value = feature(codes[cards[0]], i);
+            boolean same = true;
+            for (int j = 0; j < count; j++) {
+                int other = feature(codes[cards[j]], i);
+                same &= other == value;
+                seen |= 1L << other;
+            }
+            if (same) {
+                code |= (long) value << (bitsPerFeature * i);
+            } else if (Long.bitCount(seen) == count) {
+                long missing = ~seen & ((1L << (featureSize - 1) << 1) - 1);
+                code |= (long) Long.numberOfTrailingZeros(missing) << (bitsPerFeature * i);
+            } else {
+                return -1;
+            }
+        }
+        return cardOf(code);
+    }
+
+    /**
+     * Checks whether the given cards form a legal set.
+     *
+     * @param cards - the cards to check.
+     * @return      - true iff the cards form a legal set.
+     */
+    public boolean testSet(int[] cards) {
+        if (cards.length != featureSize)
+            return false;
+        for (int i = 0; i < cards.length; i++)
+            for (int j = i + 1; j < cards.length; j++)
+                if (cards[i] == cards[j])
+                    return false;
+        return complete(cards, featureSize - 1) == cards[featureSize - 1];
+    }
+
+    /**
+     * Checks whether the present cards contain at least one legal set.
+     *
+     * @param present - the cards to search in.
+     * @return        - true iff there is a legal set among the present cards.
+     */
+    public boolean hasSet(BitSet present) {
+        return !findSets(present, 1).isEmpty();
+    }
+
+    /**
+     * Count the legal sets among the present cards that contain the given card, by completing every combination of
+     * the card with setSize() - 2 present cards (every pair of the card with a present card, in the classic game).
+     *
+     * @param card    - the card to look for.
+     * @param present - the cards that are present (card itself need not be).
+     * @return        - the number of sets containing the card whose other cards are present.
+     */
+    public int countSetsWith(int card, BitSet present) {
+        int[] set = new int[featureSize];
+        set[0] = card;
+        return countSetsWith(present, set, 1);
+    }
+
+    private int countSetsWith(BitSet present, int[] set, int size) {
+        if (size == featureSize - 1) {
+            int last = complete(set, size);
+            return last > set[size - 1] && last != set[0] && present.get(last) ? 1 : 0;
+        }
+        int count = 0;
+        int from = size == 1 ? 0 : set[size - 1] + 1;
+        for (int card = present.nextSetBit(from); card >= 0; card = present.nextSetBit(card + 1)) {
+            set[size] = card;
+            if (card != set[0] && canExtend(set, size))
+                count += countSetsWith(present, set, size + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Finds legal sets among the present cards.
+     * The first setSize() - 1 cards of every set are enumerated in increasing order and the last one is computed,
+     * so every set is found exactly once and the search stops as soon as the limit is reached.
+     *
+     * @param present - the cards to search in.
+     * @param limit   - the maximal number of sets to return.
+     * @return        - the sets found, each sorted by card id.
+     */
+    public List<int[]> findSets(BitSet present, int limit) {
+        List<int[]> found = new ArrayList<>();
+        if (limit > 0)
+            findSets(present, limit, new int[featureSize], 0, found);
+        return found;
+    }
+
+    /**
+     * Streams the legal sets among the present cards.
+     * Sets are produced one at a time as the search enumerates them, so short-circuiting operations (findAny,
+     * limit, anyMatch) stop the search as soon as they are satisfied. In parallel mode the search is split by the
+     * smallest card of each set, and the sets come in no particular order.
+     *
+     * @param present  - the cards to search in (must not be modified while the stream is consumed).
+     * @param parallel - true iff the search should run on all cores.
+     * @return         - a stream of the sets found, each sorted by card id.
+     */
+    public Stream<int[]> streamSets(BitSet present, boolean parallel) {
+        return StreamSupport.stream(new SetSpliterator(present, 0, present.length()), parallel);
+    }
+
+    /**
+     * Finds legal sets among the present cards, in parallel if there are enough of them and enough sets are wanted.
+     *
+     * @param present - the cards to search in (must not be modified during the search).
+     * @param limit   - the maximal number of sets to return.
+     * @return        - the sets found, each sorted by card id.
+     */
+    public List<int[]> findSetsInParallel(BitSet present, int limit) {
+        if (limit < MIN_PARALLEL_LIMIT || !shouldParallelize(present))
+            return findSets(present, limit);
+        return streamSets(present, true).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * This class enumerates the legal sets among the present cards whose smallest card is in a range, one set per
+     * advance, by the same search as findSets with an explicit stack. Splitting hands over the upper half of the
+     * smallest cards not searched yet.
+     */
+    private final class SetSpliterator implements Spliterator<int[]> {
+
+        private final BitSet present;
+
+        /**
+         * The smallest card of the next set searched from scratch, and the end of the range of smallest cards.
+         */
+        private int nextFirst;
+        private int end;
+
+        /**
+         * The partial set being extended: set[0..depth-1] are chosen, and next[i] is the next card to try at index i.
+         */
+        private final int[] set = new int[featureSize];
+        private final int[] next = new int[featureSize];
+        private int depth;
+
+        SetSpliterator(BitSet present, int nextFirst, int end) {
+            this.present = present;
+            this.nextFirst = nextFirst;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            while (true) {
+                if (depth == 0) {
+                    int first = present.nextSetBit(nextFirst);
+                    if (first < 0 || first >= end)
+                        return false;
+                    set[0] = first;
+                    nextFirst = first + 1;
+                    next[1] = first + 1;
+                    depth = 1;
+                }
+                int card = present.nextSetBit(next[depth]);
+                if (card < 0) {
+                    --depth;
+                    continue;
+                }
+                next[depth] = card + 1;
+                set[depth] = card;
+                if (!canExtend(set, depth))
+                    continue;
+                if (depth < featureSize - 2) {
+                    next[++depth] = card + 1;
+                    continue;
+                }
+                int last = complete(set, featureSize - 1);
+                if (last > card && present.get(last)) {
+                    int[] found = set.clone();
+                    found[featureSize - 1] = last;
+                    action.accept(found);
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public Spliterator<int[]> trySplit() {
+            int middle = (nextFirst + end) >>> 1;
+            if (middle <= nextFirst || present.nextSetBit(middle) < 0 || present.nextSetBit(middle) >= end)
+                return null;
+            SetSpliterator upper = new SetSpliterator(present, middle, end);
+            end = middle;
+            return upper;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT;
+        }
+    }
+
+    /**
+     * Extends a partial set with every larger present card, completing it once it has setSize() - 1 cards.
+     *
+     * @return - true iff the limit was reached.
+     */
+    private boolean findSets(BitSet present, int limit, int[] set, int size, List<int[]> found) {
+        if (size == featureSize - 1) {
+            int last = complete(set, size);
+            if (last > set[size - 1] && present.get(last)) {
+                set[size] = last;
+                found.add(set.clone());
+            }
+            return found.size() >= limit;
+        }
+        int from = size == 0 ? 0 : set[size - 1] + 1;
+        for (int card = present.nextSetBit(from); card >= 0; card = present.nextSetBit(card + 1)) {
+            set[size] = card;
+            if (canExtend(set, size) && findSets(present, limit, set, size + 1, found))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the last card of a partial set keeps every feature either all same or all different.
+     * Partial sets that break this can never be completed, so their whole subtree is skipped.
+     *
+     * @param set  - the partial set.
+     * @param last - the index of the card that was just added.
+     * @return     - true iff the partial set can still be completed.
+     */
+    private boolean canExtend(int[] set, int last) {
+        if (last < 2)
+            return true;
+        long code = codes[set[last]];
+        long first = codes[set[0]];
+        long second = codes[set[1]];
+        for (int i = 0; i < featureCount; i++) {
+            int value = feature(code, i);
+            boolean same = feature(first, i) == feature(second, i);
+            for (int j = 0; j < last; j++) {
+                if ((feature(codes[set[j]], i) == value) != same)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+package bguspl.set.ex;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class measures how the set finder scales with the number of cards in the deck.
+ * For every deck it times building the finder, searching a board of random cards for a set, and enumerating
+ * a bounded number of sets from the whole deck.
+ * Run with: java bguspl.set.ex.SetFinderBenchmark
+ */
+public class SetFinderBenchmark {
+
+    /**
+     * The number of cards on each random board.
+     */
+    private static final int BOARD_SIZE = 12;
+
+    /**
+     * The number of random boards searched per deck.
+     */
+    private static final int BOARDS = 20000;
+
+    /**
+     * The number of sets enumerated from the whole deck.
+     */
+    private static final int LIMIT = 1000;
+
+    public static void main(String[] args) {
+        int[][] decks = {{4, 3}, {5, 3}, {6, 3}, {7, 3}, {8, 3}, {9, 3}, {10, 3}, {4, 4}, {6, 4}, {7, 4}, {5, 5}, {6, 5}};
+        Random random = new Random(0);
+        System.out.println("features values cards  build(ms) hasSet(ns/board) findSets(ms/" + LIMIT + ")");
+        for (int[] deck : decks) {
+            long start = System.nanoTime();
+            SetFinder setFinder = SetFinder.fullDeck(deck[0], deck[1]);
+            long build = System.nanoTime() - start;
+            int deckSize = (int) Math.pow(deck[1], deck[0]);
+
+            BitSet[] boards = new BitSet[BOARDS];
+            for (int i = 0; i < BOARDS; i++) {
+                boards[i] = new BitSet(deckSize);
+                while (boards[i].cardinality() < Math.min(BOARD_SIZE, deckSize))
+                    boards[i].set(random.nextInt(deckSize));
+            }
+            int found = 0;
+            start = System.nanoTime();
+            for (BitSet board : boards)
+                if (setFinder.hasSet(board))
+                    ++found;
+            long search = (System.nanoTime() - start) / BOARDS;
+
+            BitSet all = new BitSet(deckSize);
+            all.set(0, deckSize);
+            start = System.nanoTime();
+            List<int[]> sets = setFinder.findSets(all, LIMIT);
+            long enumerate = System.nanoTime() - start;
+
+            System.out.printf("%8d %6d %6d %10.2f %16d %12.2f   (boards with a set: %d, sets: %d)%n",
+                    deck[0], deck[1], deckSize, build / 1e6, search, enumerate / 1e6, found, sets.size());
+        }
+    }
+}
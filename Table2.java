@@ -4,16 +4,26 @@ import bguspl.set.Env;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class contains the data that is visible to the player.
  *
  * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ *
+ * Every slot has its own lock, guarding the card in the slot and the tokens on it, so operations on different
+ * slots never wait for each other. The set index and the hints, which span all the slots, have a separate lock
+ * that is only taken (after the slot lock) when a card is placed or removed.
+ * Readers never block writers: they read optimistically under the slot stamps and retry only if a write to one
+ * of the slots they read overlapped. Observers that need the whole board read the immutable snapshot published
+ * after every mutation instead; the user interface is brought up to date from these snapshots, one frame at a time.
+ * Every mutation is also appended to a journal that consumers tail without locks.
  */
 public class Table {
 
@@ -23,51 +33,113 @@ public class Table {
     private final Env env;
 
     /**
-     * Mapping between a slot and the card placed in it (null if none).
+     * Marks an empty slot in slotToCard and a card that is not on the table in cardToSlot.
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * Mapping between a slot and the card placed in it (EMPTY if none).
+     */
+    protected final int[] slotToCard; // card per slot (if any)
+
+    /**
+     * Mapping between a card and the slot it is in (EMPTY if none).
+     */
+    protected final int[] cardToSlot; // slot per card (if any)
+
+    /**
+     * Mapping between a player and the slots with its tokens, as a bitmask of slots.
+     * Updated atomically, since the tokens of a player on different slots change under different locks.
+     */
+    protected final AtomicLongArray[] playersToSlots;
+
+    /**
+     * Mapping between a slot and the players with tokens on it, as a bitmask of players (guarded by the slot lock).
+     */
+    protected final long[][] slotsToPlayers;
+
+    /**
+     * One lock per slot, guarding the card in the slot and the tokens on it.
+     */
+    private final StampedLock[] slotLocks;
+
+    /**
+     * The number of optimistic attempts of a multi-slot read before the reader yields between attempts.
+     */
+    private static final int SPIN_ATTEMPTS = 16;
+
+    /**
+     * Guards the set index and the cached hints.
+     */
+    private final Object indexLock = new Object();
+
+    /**
+     * The number of legal sets among the cards currently on the table (maintained as cards are placed and removed).
      */
-    protected final Integer[] slotToCard; // card per slot (if any)
+    private volatile int setsOnTable;
 
     /**
-     * Mapping between a card and the slot it is in (null if none).
+     * The cards currently on the table, as a bitset indexed by card id.
      */
-    protected final Integer[] cardToSlot; // slot per card (if any)
-    public Integer [] [] grid;
-    protected List<Integer>[] slotsToPlayers;
-    protected List<Integer>[] playersToSlots;
+    private final BitSet cardsOnTable;
 
-    protected boolean [] [] playerPlacedToken ;
-    //private final ReadWriteLock lockCards;
-    //private final ReadWriteLock lockTokens;
+    /**
+     * All the legal sets of the deck.
+     */
+    protected final SetCatalogue catalogue;
 
+    /**
+     * The snapshot of the table after the last committed mutation.
+     */
+    private final AtomicReference<TableSnapshot> snapshot;
 
+    /**
+     * Records every mutation of the table, in the order of the snapshot versions.
+     */
+    private final TableJournal journal;
 
+    /**
+     * Sends the changes of the table to the user interface.
+     */
+    protected final UiFrameBuffer ui;
 
+    /**
+     * The hints computed for the board at hintsVersion (null if none yet).
+     */
+    private List<Hint> hints;
+    private long hintsVersion;
 
     /**
-     * Constructor for testing.
+     * Constructor for testing. The table works on the given arrays, so a test sees every card placed or removed.
      *
      * @param env        - the game environment objects.
-     * @param slotToCard - mapping between a slot and the card placed in it (null if none).
-     * @param cardToSlot - mapping between a card and the slot it is in (null if none).
+     * @param slotToCard - mapping between a slot and the card placed in it (EMPTY if none).
+     * @param cardToSlot - mapping between a card and the slot it is in (EMPTY if none).
      */
-    public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
+    public Table(Env env, int[] slotToCard, int[] cardToSlot) {
 
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        this.slotsToPlayers = new ArrayList[slotToCard.length];  //array of slots which contains array of players
-        for(int i = 0; i< slotsToPlayers.length; i++){
-            slotsToPlayers[i] = new ArrayList();
-        }
-        this.playersToSlots = new ArrayList[this.env.config.players];
-        for(int i = 0; i< playersToSlots.length; i++){
-            playersToSlots[i] = new ArrayList();
+        this.playersToSlots = new AtomicLongArray[env.config.players];
+        for (int player = 0; player < playersToSlots.length; player++)
+            playersToSlots[player] = new AtomicLongArray(words(slotToCard.length));
+        this.slotsToPlayers = new long[slotToCard.length][words(env.config.players)];
+        this.slotLocks = new StampedLock[slotToCard.length];
+        for (int slot = 0; slot < slotLocks.length; slot++)
+            slotLocks[slot] = new StampedLock();
+
+        this.cardsOnTable = new BitSet(cardToSlot.length);
+        this.catalogue = SetCatalogue.of(env);
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slotToCard[slot] != EMPTY) {
+                setsOnTable += catalogue.countSetsWith(slotToCard[slot], cardsOnTable);
+                cardsOnTable.set(slotToCard[slot]);
+            }
         }
-        this.grid = new Integer[env.config.rows][env.config.columns];
-        //this.lockCards = new ReentrantReadWriteLock();
-        //this.lockTokens = new ReentrantReadWriteLock();
-
-        this.playerPlacedToken= new boolean[env.config.players][env.config.columns*env.config.rows];
+        this.snapshot = new AtomicReference<>(TableSnapshot.of(slotToCard, env.config.players));
+        this.journal = new TableJournal(TableJournal.DEFAULT_CAPACITY);
+        this.ui = new UiFrameBuffer(env.ui, env.logger, this::snapshot, env.config.tableDelayMillis);
 
     }
 
@@ -78,20 +150,62 @@ public class Table {
      */
     public Table(Env env) {
 
-        this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize]);
+        this(env, emptyArray(env.config.tableSize), emptyArray(env.config.deckSize));
+    }
+
+    private static int words(int bits) {
+        return (bits + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private static int[] emptyArray(int length) {
+        int[] array = new int[length];
+        Arrays.fill(array, EMPTY);
+        return array;
     }
 
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+        getHints().forEach(hint -> System.out.println("Hint: Set found: " + hint));
+    }
+
+    /**
+     * Finds all possible legal sets of cards that are currently on the table.
+     * The result is cached and recomputed only after a card was placed or removed.
+     *
+     * @return - the sets on the table, each with its slots (in increasing order) and features.
+     */
+    public List<Hint> getHints() {
+        TableSnapshot board = snapshot();
+        synchronized (indexLock) {
+            if (hints != null && hintsVersion == board.boardVersion())
+                return hints;
+        }
+
+        BitSet present = new BitSet(cardToSlot.length);
+        int[] slotOfCard = new int[cardToSlot.length];
+        for (int slot = 0; slot < board.slots(); slot++) {
+            if (board.cardAt(slot) != EMPTY) {
+                present.set(board.cardAt(slot));
+                slotOfCard[board.cardAt(slot)] = slot;
+            }
+        }
+        List<Hint> found = new ArrayList<>();
+        catalogue.streamSets(present).forEachOrdered(set -> {
+            int[] cards = Arrays.stream(set).boxed().sorted(Comparator.comparingInt(card -> slotOfCard[card]))
+                    .mapToInt(Integer::intValue).toArray();
+            int[] slots = Arrays.stream(cards).map(card -> slotOfCard[card]).toArray();
+            found.add(new Hint(slots, cards, env.util.cardsToFeatures(cards)));
         });
+        List<Hint> result = Collections.unmodifiableList(found);
+        synchronized (indexLock) {
+            if (hints == null || hintsVersion < board.boardVersion()) {
+                hints = result;
+                hintsVersion = board.boardVersion();
+            }
+        }
+        return result;
     }
 
     /**
@@ -101,106 +215,295 @@ public class Table {
      */
     public int countCards() {
         int cards = 0;
-        //this.lockCards.readLock().lock();
-        for (Integer card : slotToCard)
-            if (card != null)
+        for (int card : slotToCard)
+            if (card != EMPTY)
                 ++cards;
-        //this.lockCards.readLock().unlock();
         return cards;
     }
 
+    /**
+     * @return - the number of cards (and tokens) that make a legal set.
+     */
+    public int setSize() {
+        return catalogue.setFinder().setSize();
+    }
+
+    /**
+     * Checks whether the cards currently on the table contain at least one legal set.
+     *
+     * @return - true iff there is a legal set on the table.
+     */
+    public boolean hasSets() {
+        return setsOnTable > 0;
+    }
+
+    /**
+     * Count the number of legal sets among the cards currently on the table.
+     *
+     * @return - the number of legal sets on the table.
+     */
+    public int countSets() {
+        return setsOnTable;
+    }
+
     /**
      * Places a card on the table in a grid slot.
      * @param card - the card id to place in the slot.
      * @param slot - the slot in which the card should be placed.
      *
-     * @post - the card placed is on the table, in the assigned slot.
+     * @post - the card placed is on the table, in the assigned slot (the ui reveals it after the table delay).
      */
     public void placeCard(int card, int slot) {
+        long stamp = slotLocks[slot].writeLock();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
-
-        //this.lockCards.writeLock().lock();
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
-        env.ui.placeCard(card, slot);
-
-        boolean keepLoop = true;
-        for(int row = 0; row < this.grid.length && keepLoop; row++) {
-            for (int col = 0; col < this.grid[0].length && keepLoop; col++) {
-                if (this.grid[row][col] == null && slot == col + this.grid[0].length*row) {//Anni
-                    this.grid[row][col] = card;
-                    keepLoop = false;
-                }
-
+            cardToSlot[card] = slot;
+            slotToCard[slot] = card;
+            synchronized (indexLock) {
+                setsOnTable += catalogue.countSetsWith(card, cardsOnTable);
+                cardsOnTable.set(card);
             }
-
+            long version = snapshot.updateAndGet(current -> current.withCard(slot, card)).version();
+            journal.append(version, TableJournal.PLACE_CARD, slot, TableJournal.NO_PLAYER, card);
+        } finally {
+            slotLocks[slot].unlockWrite(stamp);
         }
-        //this.lockCards.writeLock().unlock();
     }
 
     /**
      * Removes a card from a grid slot on the table.
      * @param slot - the slot from which to remove the card.
+     *
+     * @post - the slot is empty (the ui reveals it after the table delay).
      */
     public void removeCard(int slot) {
+        long stamp = slotLocks[slot].writeLock();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
-
-        //this.lockCards.writeLock().lock();
-        // System.out.println("slot " + slot);
-        if (slotToCard[slot] != null){
-            int card = slotToCard[slot];
-            //   System.out.println("card " + card);
-            for(int id = 0 ; id < playersToSlots.length; id++){
-                removeToken(id, slot);
+            if (slotToCard[slot] != EMPTY){
+                int card = slotToCard[slot];
+                for (int player = nextPlayer(slot, 0); player >= 0; player = nextPlayer(slot, player + 1)) {
+                    removeTokenLocked(player, slot);
+                }
+
+                synchronized (indexLock) {
+                    cardsOnTable.clear(card);
+                    setsOnTable -= catalogue.countSetsWith(card, cardsOnTable);
+                }
+                slotToCard[slot] = EMPTY;
+                cardToSlot[card] = EMPTY;
+                long version = snapshot.updateAndGet(current -> current.withCard(slot, EMPTY)).version();
+                journal.append(version, TableJournal.REMOVE_CARD, slot, TableJournal.NO_PLAYER, card);
             }
-            env.ui.removeTokens(slot);
-
-            slotToCard[slot] = null;
-            cardToSlot[card] = null;
-            boolean keepLoop = true;
-            for(int row = 0; row < this.grid.length && keepLoop; row++){
-                for(int col = 0; col < this.grid[0].length && keepLoop; col++){
-                    if( (this.grid[row][col]) != null && (this.grid[row][col] == card)){
-                        this.grid[row][col] = null;
-                        keepLoop = false;
-                    }
+        } finally {
+            slotLocks[slot].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Places several cards on the table at once: a single critical section, a single snapshot and a single reveal
+     * in the ui. The slot locks are taken in increasing order of slot, so bulk operations never deadlock.
+     * @param cards - the card ids to place.
+     * @param slots - the slot in which to place each of the cards (all different).
+     *
+     * @pre  - the slots are empty and the cards are not on the table.
+     * @post - every card is on the table, in its assigned slot.
+     */
+    public void placeCards(int[] cards, int[] slots) {
+        if (cards.length != slots.length)
+            throw new IllegalArgumentException("got " + cards.length + " cards for " + slots.length + " slots");
+        int[] locked = slots.clone();
+        long[] stamps = lockSlots(locked);
+        try {
+            synchronized (indexLock) {
+                for (int i = 0; i < cards.length; i++) {
+                    cardToSlot[cards[i]] = slots[i];
+                    slotToCard[slots[i]] = cards[i];
+                    setsOnTable += catalogue.countSetsWith(cards[i], cardsOnTable);
+                    cardsOnTable.set(cards[i]);
+                }
+            }
+            long version = snapshot.updateAndGet(current -> current.withCards(slots, cards, slots.length)).version();
+            for (int i = 0; i < cards.length; i++)
+                journal.append(version - cards.length + 1 + i, TableJournal.PLACE_CARD, slots[i],
+                        TableJournal.NO_PLAYER, cards[i]);
+        } finally {
+            unlockSlots(locked, stamps);
+        }
+    }
 
+    /**
+     * Commits claimed sets: every claim atomically checks that its slots still hold the cards it was made on, by
+     * comparing the card version of every slot with the one the claim was verified against, and if so swaps the
+     * cards out for their replacements. A claim whose slots changed fails without affecting the others. All the
+     * claims are committed in a single critical section, a single snapshot and a single reveal in the ui.
+     * @param slots        - the slots of every claim.
+     * @param versions     - the card version of every slot of every claim, as in TableSnapshot.cardVersion.
+     * @param replacements - the card to place in every slot of every claim (EMPTY to leave the slot empty).
+     * @return             - whether every claim was committed.
+     *
+     * @pre  - the replacements are not on the table.
+     */
+    public boolean[] commitClaims(int[][] slots, long[][] versions, int[][] replacements) {
+        BitSet involved = new BitSet(slotToCard.length);
+        for (int[] claim : slots)
+            for (int slot : claim)
+                involved.set(slot);
+        int[] locked = involved.stream().toArray();
+        long[] stamps = lockSlots(locked);
+        try {
+            TableSnapshot current = snapshot.get(); // up to date for the locked slots
+            boolean[] committed = new boolean[slots.length];
+            int[] changedSlots = new int[locked.length];
+            int[] changedCards = new int[locked.length];
+            int count = 0;
+            BitSet swapped = new BitSet(slotToCard.length);
+            for (int claim = 0; claim < slots.length; claim++) {
+                committed[claim] = true;
+                for (int i = 0; i < slots[claim].length && committed[claim]; i++)
+                    committed[claim] = !swapped.get(slots[claim][i])
+                            && current.cardVersion(slots[claim][i]) == versions[claim][i];
+                if (committed[claim]) {
+                    for (int i = 0; i < slots[claim].length; i++) {
+                        swapped.set(slots[claim][i]);
+                        changedSlots[count] = slots[claim][i];
+                        changedCards[count++] = replacements[claim][i];
+                    }
                 }
+            }
+            if (count > 0)
+                replaceLocked(changedSlots, changedCards, count);
+            return committed;
+        } finally {
+            unlockSlots(locked, stamps);
+        }
+    }
 
+    /**
+     * Replaces the cards in several slots whose locks are held by the caller, and publishes the resulting snapshot.
+     * The removals come first, then the placements, as separate mutations of the snapshot and the journal.
+     */
+    private void replaceLocked(int[] slots, int[] cards, int length) {
+        int[] changedSlots = new int[2 * length];
+        int[] changedCards = new int[2 * length];
+        int[] journalCards = new int[2 * length];
+        int count = 0;
+        synchronized (indexLock) {
+            for (int i = 0; i < length; i++) {
+                int slot = slots[i];
+                int card = slotToCard[slot];
+                if (card != EMPTY) {
+                    for (int player = nextPlayer(slot, 0); player >= 0; player = nextPlayer(slot, player + 1))
+                        removeTokenLocked(player, slot);
+                    cardsOnTable.clear(card);
+                    setsOnTable -= catalogue.countSetsWith(card, cardsOnTable);
+                    cardToSlot[card] = EMPTY;
+                    slotToCard[slot] = EMPTY;
+                    changedSlots[count] = slot;
+                    changedCards[count] = EMPTY;
+                    journalCards[count++] = card;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (cards[i] != EMPTY) {
+                    cardToSlot[cards[i]] = slots[i];
+                    slotToCard[slots[i]] = cards[i];
+                    setsOnTable += catalogue.countSetsWith(cards[i], cardsOnTable);
+                    cardsOnTable.set(cards[i]);
+                    changedSlots[count] = slots[i];
+                    changedCards[count] = cards[i];
+                    journalCards[count++] = cards[i];
+                }
             }
-            env.ui.removeCard(slot);
         }
-        //this.lockCards.writeLock().unlock();
+        int changed = count;
+        long version = snapshot.updateAndGet(current -> current.withCards(changedSlots, changedCards, changed))
+                .version();
+        for (int i = 0; i < count; i++) {
+            int type = changedCards[i] == EMPTY ? TableJournal.REMOVE_CARD : TableJournal.PLACE_CARD;
+            journal.append(version - count + 1 + i, type, changedSlots[i], TableJournal.NO_PLAYER, journalCards[i]);
+        }
+    }
+
+    /**
+     * Takes the write locks of several slots, in increasing order of slot.
+     * @param slots - the slots to lock; sorted in place.
+     * @return      - the stamp of every lock, in the sorted order.
+     */
+    private long[] lockSlots(int[] slots) {
+        Arrays.sort(slots);
+        long[] stamps = new long[slots.length];
+        for (int i = 0; i < slots.length; i++)
+            stamps[i] = slotLocks[slots[i]].writeLock();
+        return stamps;
+    }
+
+    private void unlockSlots(int[] slots, long[] stamps) {
+        for (int i = slots.length - 1; i >= 0; i--)
+            slotLocks[slots[i]].unlockWrite(stamps[i]);
+    }
 
+    /**
+     * Removes all the cards, and all the tokens, from the table at once: a single critical section, a single
+     * snapshot and a single reveal in the ui.
+     * @return - the cards that were on the table.
+     *
+     * @post - the table is empty.
+     */
+    public int[] clearBoard() {
+        long[] stamps = new long[slotLocks.length];
+        for (int slot = 0; slot < slotLocks.length; slot++)
+            stamps[slot] = slotLocks[slot].writeLock();
+        try {
+            int[] slots = new int[slotToCard.length];
+            int[] cards = new int[slotToCard.length];
+            int count = 0;
+            for (int slot = 0; slot < slotToCard.length; slot++) {
+                if (slotToCard[slot] != EMPTY) {
+                    slots[count] = slot;
+                    cards[count++] = slotToCard[slot];
+                    cardToSlot[slotToCard[slot]] = EMPTY;
+                    slotToCard[slot] = EMPTY;
+                }
+                Arrays.fill(slotsToPlayers[slot], 0);
+            }
+            for (AtomicLongArray tokens : playersToSlots)
+                for (int i = 0; i < tokens.length(); i++)
+                    tokens.set(i, 0);
+            synchronized (indexLock) {
+                cardsOnTable.clear();
+                setsOnTable = 0;
+            }
+            int[] empties = emptyArray(count);
+            int changed = count;
+            long version = snapshot.updateAndGet(current -> current.withCards(slots, empties, changed)).version();
+            for (int i = 0; i < count; i++)
+                journal.append(version - count + 1 + i, TableJournal.REMOVE_CARD, slots[i],
+                        TableJournal.NO_PLAYER, cards[i]);
+            return Arrays.copyOf(cards, count);
+        } finally {
+            for (int slot = slotLocks.length - 1; slot >= 0; slot--)
+                slotLocks[slot].unlockWrite(stamps[slot]);
+        }
     }
 
     /**
      * Places a player token on a grid slot.
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
+     * @return       - true iff a token was placed (the slot has a card and no token of the player yet).
      */
-    public void placeToken(int player, int slot) {
-        //this.lockTokens.writeLock().lock();
-        if(slotToCard[slot] != null){
-            slotsToPlayers[slot].add(player);
-            playersToSlots[player].add(slot);
-            //    System.out.println("playersToSlots: " +  playersToSlots[player]);
-            //     System.out.println("slotsToPlayers: " + slotsToPlayers[slot]);
-            env.ui.placeToken(player, slot);
+    public boolean placeToken(int player, int slot) {
+        long stamp = slotLocks[slot].writeLock();
+        try {
+            if (slotToCard[slot] == EMPTY || hasToken(player, slot))
+                return false;
+            playersToSlots[player].getAndAccumulate(slot / Long.SIZE, 1L << slot, (word, bit) -> word | bit);
+            slotsToPlayers[slot][player / Long.SIZE] |= 1L << player;
+            long version = snapshot.updateAndGet(current -> current.withToken(player, slot, true)).version();
+            journal.append(version, TableJournal.PLACE_TOKEN, slot, player, slotToCard[slot]);
+            return true;
+        } finally {
+            slotLocks[slot].unlockWrite(stamp);
         }
-//        if(playerPlacedToken[player][slot] == false){
-//            playerPlacedToken[player][slot] = true;
-//            //slotsToPlayers[slot].add(player);
-//            //playersToSlots[player].add(slot);
-//           /// System.out.println("playersToSlots: " +  playersToSlots[player]);
-//           // System.out.println("slotsToPlayers: " + slotsToPlayers[slot]);
-//            env.ui.placeToken(player, slot);
-//        }
-        //this.lockTokens.writeLock().unlock();
     }
 
     /**
@@ -210,65 +513,230 @@ public class Table {
      * @return       - true iff a token was successfully removed.
      */
     public boolean removeToken(int player, int slot) {
-        //this.lockTokens.writeLock().lock();
-
-        if (slotsToPlayers[slot] != null && slotsToPlayers[slot].contains(player)) {
-            //    System.out.println("remove from slotsToPlayers " + slot);
-            slotsToPlayers[slot].remove(slotsToPlayers[slot].indexOf(player));
-            if (playersToSlots[player] != null && playersToSlots[player].contains(slot)) {
-                //       System.out.println("remove from playersToSlots " + slot);
-                playersToSlots[player].remove(playersToSlots[player].indexOf(slot));
+        long stamp = slotLocks[slot].writeLock();
+        try {
+            if (!removeTokenLocked(player, slot))
+                return false;
+            long version = snapshot.updateAndGet(current -> current.withToken(player, slot, false)).version();
+            journal.append(version, TableJournal.REMOVE_TOKEN, slot, player, slotToCard[slot]);
+            return true;
+        } finally {
+            slotLocks[slot].unlockWrite(stamp);
+        }
+    }
 
-            }
-            env.ui.removeToken(player, slot);
-            //     System.out.println("remove from gui ");
-            //this.lockTokens.writeLock().unlock();
+    /**
+     * Removes a token of a player from a grid slot whose lock is held by the caller.
+     * The caller publishes the resulting snapshot.
+     */
+    private boolean removeTokenLocked(int player, int slot) {
+        if (hasToken(player, slot)) {
+            playersToSlots[player].getAndAccumulate(slot / Long.SIZE, ~(1L << slot), (word, mask) -> word & mask);
+            slotsToPlayers[slot][player / Long.SIZE] &= ~(1L << player);
             return true;
         }
+        return false;
+    }
 
+    /**
+     * Removes all the tokens of a player.
+     * @param player - the player the tokens belong to.
+     */
+    public void removeTokens(int player) {
+        for (int slot = nextToken(player, 0); slot >= 0; slot = nextToken(player, slot + 1))
+            removeToken(player, slot);
+    }
 
-        //this.lockTokens.writeLock().unlock();
-        return false;
+    /**
+     * @param player - the player the token belongs to.
+     * @param slot   - the slot to look at.
+     * @return       - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return (playersToSlots[player].get(slot / Long.SIZE) & (1L << slot)) != 0;
+    }
+
+    /**
+     * @param player - the player the tokens belong to.
+     * @return       - the number of tokens the player has on the table.
+     */
+    public int countTokens(int player) {
+        int count = 0;
+        AtomicLongArray words = playersToSlots[player];
+        for (int i = 0; i < words.length(); i++)
+            count += Long.bitCount(words.get(i));
+        return count;
+    }
+
+    /**
+     * Finds the next slot with a token of the player, in increasing order.
+     * @param player - the player the tokens belong to.
+     * @param from   - the first slot to look at.
+     * @return       - the first slot >= from with a token of the player, or -1 if there is none.
+     */
+    public int nextToken(int player, int from) {
+        AtomicLongArray words = playersToSlots[player];
+        int index = from / Long.SIZE;
+        if (index >= words.length())
+            return -1;
+        long word = words.get(index) & (-1L << from);
+        while (word == 0) {
+            if (++index == words.length())
+                return -1;
+            word = words.get(index);
+        }
+        return index * Long.SIZE + Long.numberOfTrailingZeros(word);
     }
 
+    /**
+     * Finds the next player with a token on the slot, in increasing order (called with the slot lock held).
+     * @param slot - the slot to look at.
+     * @param from - the first player to look at.
+     * @return     - the first player >= from with a token on the slot, or -1 if there is none.
+     */
+    public int nextPlayer(int slot, int from) {
+        long[] words = slotsToPlayers[slot];
+        int index = from / Long.SIZE;
+        if (index >= words.length)
+            return -1;
+        long word = words[index] & (-1L << from);
+        while (word == 0) {
+            if (++index == words.length)
+                return -1;
+            word = words[index];
+        }
+        return index * Long.SIZE + Long.numberOfTrailingZeros(word);
+    }
 
-    // getCard method
+    /**
+     * @param slot - the slot to look at.
+     * @return     - the card in the slot, or null if the slot is empty.
+     */
     public Integer getCard(int slot) {
-        //this.lockCards.readLock().lock();
+        int card = cardAt(slot);
+        return card == EMPTY ? null : card;
+    }
+
+    /**
+     * @param card - the card to look for.
+     * @return     - the slot the card is in, or null if it is not on the table.
+     */
+    public Integer getSlot(int card) {
+        int slot = slotOf(card);
+        return slot == EMPTY ? null : slot;
+    }
+
+    /**
+     * @param slot - the slot to look at.
+     * @return     - the card in the slot, or EMPTY if the slot is empty.
+     */
+    public int cardAt(int slot) {
+        StampedLock lock = slotLocks[slot];
+        long stamp = lock.tryOptimisticRead();
         int card = this.slotToCard[slot];
-        //this.lockCards.readLock().unlock();
-        return card;
+        if (lock.validate(stamp))
+            return card;
+        stamp = lock.readLock();
+        try {
+            return this.slotToCard[slot];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
 
+    /**
+     * @param card - the card to look for.
+     * @return     - the slot the card is in, or EMPTY if it is not on the table.
+     */
+    public int slotOf(int card) {
+        while (true) {
+            int slot = this.cardToSlot[card];
+            if (slot == EMPTY || cardAt(slot) == card)
+                return slot;
+        }
     }
 
-    public Integer getSlot(int card) {
-        //this.lockCards.readLock().lock();
-        int slot =  this.cardToSlot[card];
-        //this.lockCards.readLock().unlock();
-        return slot;
-    }
-
-    public void removeAllCardsFromTable(){
-        //this.lockCards.writeLock().lock();
-        for(int row = 0; row < this.grid.length; row++) {
-            for (int col = 0; col < this.grid[0].length; col++) {
-                if(this.grid[row][col]!=null){
-                    int card = this.grid[row][col];
-                    int slot = cardToSlot[card];
-                    removeCard(slot);
+    /**
+     * Reads the slots with tokens of a player and the cards in them as one consistent view, without blocking
+     * writers. The view is retried only if a write to one of these slots, or a new token, overlapped the read.
+     *
+     * @param player - the player the tokens belong to.
+     * @param slots  - filled with the slots with tokens of the player, in increasing order.
+     * @param cards  - filled with the cards in these slots.
+     * @return       - the number of tokens of the player (only the first slots.length are filled).
+     */
+    public int readTokens(int player, int[] slots, int[] cards) {
+        long[] stamps = new long[slots.length];
+        for (int attempt = 0; ; attempt++) {
+            int count = 0;
+            for (int slot = nextToken(player, 0); slot >= 0; slot = nextToken(player, slot + 1)) {
+                if (count < slots.length) {
+                    stamps[count] = slotLocks[slot].tryOptimisticRead();
+                    slots[count] = slot;
+                    cards[count] = slotToCard[slot];
                 }
-
+                ++count;
             }
+            boolean valid = true;
+            for (int i = 0; i < Math.min(count, slots.length) && valid; i++)
+                valid = slotLocks[slots[i]].validate(stamps[i]) && hasToken(player, slots[i]);
+            if (valid && count == countTokens(player))
+                return count;
+            if (attempt >= SPIN_ATTEMPTS)
+                Thread.yield();
         }
-        //this.lockCards.writeLock().unlock();
+    }
+
+    /**
+     * @param row    - the row of the slot in the grid.
+     * @param column - the column of the slot in the grid.
+     * @return       - the slot at this position of the grid.
+     */
+    public int slotAt(int row, int column) {
+        return column + env.config.columns * row;
+    }
+
+    /**
+     * @param slot - the slot to locate.
+     * @return     - the row of the slot in the grid.
+     */
+    public int rowOf(int slot) {
+        return slot / env.config.columns;
+    }
+
+    /**
+     * @param slot - the slot to locate.
+     * @return     - the column of the slot in the grid.
+     */
+    public int columnOf(int slot) {
+        return slot % env.config.columns;
     }
 
     public Integer[] getSlotToCard(){
-        //this.lockCards.readLock().lock();
-        Integer[] array = this.slotToCard;
-        //this.lockCards.readLock().unlock();
+        TableSnapshot board = snapshot();
+        Integer[] array = new Integer[board.slots()];
+        for (int slot = 0; slot < array.length; slot++)
+            array[slot] = board.cardAt(slot) == EMPTY ? null : board.cardAt(slot);
         return array;
     }
 
+    /**
+     * Returns the board as it was after the last committed mutation, without taking any lock.
+     *
+     * @return - an immutable snapshot of the cards and tokens on the table.
+     */
+    public TableSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Returns the journal of the mutations of the table. To tail it from now on, poll from snapshot().version() + 1.
+     *
+     * @return - the journal of the table.
+     */
+    public TableJournal journal() {
+        return journal;
+    }
+
 
 }
@@ -0,0 +1,150 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records every mutation of the table in a preallocated ring buffer that any number of consumers tail
+ * without locks.
+ * Every entry is identified by its sequence, the version of the table snapshot that the mutation produced (the
+ * snapshot versions are claimed by compare-and-set, so every sequence has a single writer). An entry is written
+ * between two stamps of its cell, like the slots of the table: the cell is first marked with the negated sequence,
+ * then filled, then marked with the sequence. A consumer accepts an entry only if the cell holds its sequence
+ * before and after reading it; once the writers are a full buffer ahead, the entries a consumer has not read yet
+ * are overwritten and it skips to the oldest entry still in the buffer.
+ *
+ * @inv sequences.get(sequence & mask) == sequence iff the entry of the sequence is published and not overwritten
+ */
+public class TableJournal {
+
+    /**
+     * The types of the entries.
+     */
+    public static final int PLACE_CARD = 0;
+    public static final int REMOVE_CARD = 1; // the tokens on the slot are removed with the card
+    public static final int PLACE_TOKEN = 2;
+    public static final int REMOVE_TOKEN = 3;
+
+    /**
+     * Marks an entry without a player (a card placed or removed).
+     */
+    public static final int NO_PLAYER = -1;
+
+    /**
+     * The number of entries kept by default.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 12;
+
+    /**
+     * This interface receives the entries read from the journal.
+     */
+    public interface Consumer {
+
+        /**
+         * @param sequence - the sequence of the entry (the version of the snapshot after the mutation).
+         * @param type     - the type of the mutation.
+         * @param slot     - the slot mutated.
+         * @param player   - the player whose token was placed or removed (NO_PLAYER for a card).
+         * @param card     - the card in the slot (the card removed, for REMOVE_CARD).
+         * @param nanoTime - the time of the mutation, as given by System.nanoTime().
+         */
+        void accept(long sequence, int type, int slot, int player, int card, long nanoTime);
+    }
+
+    /**
+     * The number of cells minus one (the number of cells is a power of two).
+     */
+    private final int mask;
+
+    /**
+     * The stamp of every cell: the sequence of the entry in the cell, negated while it is being written (0 if none).
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The fields of the entry in every cell.
+     */
+    private final AtomicIntegerArray types;
+    private final AtomicIntegerArray slots;
+    private final AtomicIntegerArray players;
+    private final AtomicIntegerArray cards;
+    private final AtomicLongArray times;
+
+    /**
+     * The class constructor.
+     *
+     * @param capacity - the number of entries to keep (rounded up to a power of two).
+     */
+    public TableJournal(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int cells = Integer.highestOneBit(capacity);
+        if (cells < capacity)
+            cells <<= 1;
+        this.mask = cells - 1;
+        this.sequences = new AtomicLongArray(cells);
+        this.types = new AtomicIntegerArray(cells);
+        this.slots = new AtomicIntegerArray(cells);
+        this.players = new AtomicIntegerArray(cells);
+        this.cards = new AtomicIntegerArray(cells);
+        this.times = new AtomicLongArray(cells);
+    }
+
+    /**
+     * @return - the number of entries kept.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Appends an entry (called by the table, once the snapshot with the mutation is published).
+     *
+     * @param sequence - the version of the snapshot after the mutation (positive).
+     * @param type     - the type of the mutation.
+     * @param slot     - the slot mutated.
+     * @param player   - the player whose token was placed or removed (NO_PLAYER for a card).
+     * @param card     - the card in the slot.
+     */
+    void append(long sequence, int type, int slot, int player, int card) {
+        int cell = (int) sequence & mask;
+        sequences.set(cell, -sequence);
+        types.lazySet(cell, type);
+        slots.lazySet(cell, slot);
+        players.lazySet(cell, player);
+        cards.lazySet(cell, card);
+        times.lazySet(cell, System.nanoTime());
+        sequences.set(cell, sequence);
+    }
+
+    /**
+     * Reads the published entries from a sequence on, in order, until the first entry that is not published yet.
+     * Entries that were overwritten before being read are skipped; the consumer sees the gap in the sequences.
+     *
+     * @param from     - the sequence of the first entry to read (1 for the first mutation of the table).
+     * @param consumer - receives the entries read.
+     * @return         - the sequence of the next entry to read.
+     */
+    public long poll(long from, Consumer consumer) {
+        long sequence = from;
+        while (true) {
+            int cell = (int) sequence & mask;
+            long stamp = sequences.get(cell);
+            if (Math.abs(stamp) > sequence) {
+                sequence = Math.abs(stamp) - mask; // lapped: the oldest entry that may still be in the buffer
+                continue;
+            }
+            if (stamp != sequence)
+                return sequence;
+            int type = types.get(cell);
+            int slot = slots.get(cell);
+            int player = players.get(cell);
+            int card = cards.get(cell);
+            long time = times.get(cell);
+            if (sequences.get(cell) != sequence)
+                continue;
+            consumer.accept(sequence, type, slot, player, card, time);
+            ++sequence;
+        }
+    }
+}
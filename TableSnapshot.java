@@ -0,0 +1,185 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * This class is an immutable view of the table: the card in every slot and the tokens of every player.
+ * The table publishes a new snapshot after every committed mutation, so observers read a consistent board
+ * without taking any lock. A snapshot is a copy of two small arrays, so publishing one per mutation is cheap.
+ *
+ * @inv tokens[player * words + slot / 64] has bit slot % 64 set iff the player has a token on the slot
+ */
+public final class TableSnapshot {
+
+    /**
+     * The card in every slot (Table.EMPTY if none).
+     */
+    private final int[] cards;
+
+    /**
+     * The tokens of every player, as consecutive bitmasks of slots.
+     */
+    private final long[] tokens;
+
+    /**
+     * The number of longs in the bitmask of a single player.
+     */
+    private final int words;
+
+    /**
+     * The number of mutations committed before this snapshot was published.
+     */
+    private final long version;
+
+    /**
+     * The number of card placements and removals committed before this snapshot was published (a bulk operation
+     * counts once).
+     */
+    private final long boardVersion;
+
+    /**
+     * The board version at which the card in every slot was last placed or removed.
+     */
+    private final long[] cardVersions;
+
+    private TableSnapshot(int[] cards, long[] tokens, int words, long version, long boardVersion, long[] cardVersions) {
+        this.cards = cards;
+        this.tokens = tokens;
+        this.words = words;
+        this.version = version;
+        this.boardVersion = boardVersion;
+        this.cardVersions = cardVersions;
+    }
+
+    /**
+     * Creates the snapshot of a table.
+     *
+     * @param cards   - the card in every slot (Table.EMPTY if none).
+     * @param players - the number of players.
+     * @return        - the snapshot of a table with these cards and no tokens.
+     */
+    static TableSnapshot of(int[] cards, int players) {
+        int words = (cards.length + Long.SIZE - 1) / Long.SIZE;
+        return new TableSnapshot(cards.clone(), new long[players * words], words, 0, 0, new long[cards.length]);
+    }
+
+    /**
+     * @return - a snapshot with the card placed in the slot (or removed from it, with its tokens, if EMPTY).
+     */
+    TableSnapshot withCard(int slot, int card) {
+        return withCards(new int[]{slot}, new int[]{card}, 1);
+    }
+
+    /**
+     * @param slots - the slots whose cards change.
+     * @param cards - the card placed in each of these slots (EMPTY to remove the card); the tokens on the slots
+     *                are removed.
+     * @param count - the number of slots that change (only the first count are looked at).
+     * @return      - a snapshot with all the cards changed as one board version, counting one mutation per card.
+     */
+    TableSnapshot withCards(int[] slots, int[] cards, int count) {
+        int[] newCards = this.cards.clone();
+        long[] newCardVersions = cardVersions.clone();
+        long[] newTokens = tokens;
+        for (int i = 0; i < count; i++) {
+            int slot = slots[i];
+            newCards[slot] = cards[i];
+            newCardVersions[slot] = boardVersion + 1;
+            if (this.cards[slot] != Table.EMPTY) {
+                if (newTokens == tokens)
+                    newTokens = tokens.clone();
+                for (int player = 0; player < players(); player++)
+                    newTokens[player * words + slot / Long.SIZE] &= ~(1L << slot);
+            }
+        }
+        return new TableSnapshot(newCards, newTokens, words, version + count, boardVersion + 1, newCardVersions);
+    }
+
+    /**
+     * @return - a snapshot with the token of the player placed on the slot (or removed from it).
+     */
+    TableSnapshot withToken(int player, int slot, boolean placed) {
+        long[] newTokens = tokens.clone();
+        if (placed)
+            newTokens[player * words + slot / Long.SIZE] |= 1L << slot;
+        else
+            newTokens[player * words + slot / Long.SIZE] &= ~(1L << slot);
+        return new TableSnapshot(cards, newTokens, words, version + 1, boardVersion, cardVersions);
+    }
+
+    /**
+     * @return - the number of slots on the table.
+     */
+    public int slots() {
+        return cards.length;
+    }
+
+    /**
+     * @return - the number of players.
+     */
+    public int players() {
+        return words == 0 ? 0 : tokens.length / words;
+    }
+
+    /**
+     * @param slot - the slot to look at.
+     * @return     - the card in the slot, or Table.EMPTY if the slot is empty.
+     */
+    public int cardAt(int slot) {
+        return cards[slot];
+    }
+
+    /**
+     * @return - a copy of the card in every slot (Table.EMPTY if none).
+     */
+    public int[] cards() {
+        return cards.clone();
+    }
+
+    /**
+     * @param player - the player the token belongs to.
+     * @param slot   - the slot to look at.
+     * @return       - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return (tokens[player * words + slot / Long.SIZE] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @param player - the player the tokens belong to.
+     * @return       - the number of tokens the player has on the table.
+     */
+    public int countTokens(int player) {
+        int count = 0;
+        for (int i = player * words; i < (player + 1) * words; i++)
+            count += Long.bitCount(tokens[i]);
+        return count;
+    }
+
+    /**
+     * @return - the number of mutations committed before this snapshot was published.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return - the number of card placements and removals committed before this snapshot was published.
+     */
+    public long boardVersion() {
+        return boardVersion;
+    }
+
+    /**
+     * @param slot - the slot to look at.
+     * @return     - the board version at which the card in the slot was last placed or removed.
+     */
+    public long cardVersion(int slot) {
+        return cardVersions[slot];
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + " cards " + Arrays.toString(cards);
+    }
+}
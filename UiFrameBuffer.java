@@ -0,0 +1,213 @@
+package bguspl.set.ex;
+
+import bguspl.set.UserInterface;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class brings the user interface up to date with the table, one frame at a time.
+ * Table mutations only publish snapshots; at every frame (or on demand) the latest snapshot is compared with the
+ * one shown last and only the difference is sent to the user interface. Changes that cancel out between two frames
+ * (a token placed and removed, a card removed and put back) are never sent at all, and the threads mutating the
+ * table never wait for the user interface. The table animation delay is applied here as well: card changes are
+ * committed to the table at once and only their reveal is spaced out, one delay per placement or removal (or per
+ * bulk operation).
+ * The frames run on an executor supplied by the caller (a server shares its own among all its tables), or else on
+ * a thread of this table; a failure of the user interface is logged and the next frame is flushed as usual.
+ */
+public class UiFrameBuffer {
+
+    /**
+     * The time between two frames.
+     */
+    public static final long FRAME_MILLIS = 16;
+
+    /**
+     * The user interface to update.
+     */
+    private final UserInterface ui;
+
+    /**
+     * Logs the failures of the user interface.
+     */
+    private final Logger logger;
+
+    /**
+     * Supplies the latest snapshot of the table.
+     */
+    private final Supplier<TableSnapshot> board;
+
+    /**
+     * The time between the reveals of two card changes, in nanoseconds.
+     */
+    private final long revealDelayNanos;
+
+    /**
+     * The card that the user interface shows in every slot (Table.EMPTY if none).
+     */
+    private final int[] shownCards;
+
+    /**
+     * The tokens that the user interface shows on every slot, as a bitmask of players.
+     */
+    private final long[][] shownTokens;
+
+    /**
+     * The time at which the pending card change of every slot is revealed (0 if none is pending).
+     */
+    private final long[] revealTimes;
+
+    /**
+     * The time of the latest scheduled reveal, and the board version of the card changes revealed then.
+     * Card changes committed together (in one bulk operation) share a single reveal.
+     */
+    private long lastReveal;
+    private long lastRevealVersion;
+
+    /**
+     * The version of the snapshot last flushed, and whether some of its card changes are still hidden.
+     */
+    private long shownVersion;
+    private boolean pending;
+
+    /**
+     * The periodic flush (null if not started), and the executor created to run it (null if it was supplied).
+     */
+    private ScheduledFuture<?> frames;
+    private ScheduledExecutorService ownExecutor;
+
+    /**
+     * The class constructor.
+     *
+     * @param ui          - the user interface to update.
+     * @param logger      - logs the failures of the user interface.
+     * @param board       - supplies the latest snapshot of the table.
+     * @param delayMillis - the time between the reveals of two card changes.
+     */
+    public UiFrameBuffer(UserInterface ui, Logger logger, Supplier<TableSnapshot> board, long delayMillis) {
+        this.ui = ui;
+        this.logger = logger;
+        this.board = board;
+        this.revealDelayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        TableSnapshot initial = board.get();
+        this.shownCards = new int[initial.slots()];
+        Arrays.fill(shownCards, Table.EMPTY);
+        this.shownTokens = new long[initial.slots()][(initial.players() + Long.SIZE - 1) / Long.SIZE];
+        this.revealTimes = new long[initial.slots()];
+        this.shownVersion = -1;
+    }
+
+    /**
+     * Starts flushing at the frame rate, on a thread of this table.
+     */
+    public synchronized void start() {
+        if (frames != null)
+            return;
+        ownExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ui-frames");
+            thread.setDaemon(true);
+            return thread;
+        });
+        start(ownExecutor);
+    }
+
+    /**
+     * Starts flushing at the frame rate.
+     *
+     * @param executor - runs the frames.
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (frames == null)
+            frames = executor.scheduleAtFixedRate(this::flushFrame, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flushes a frame; a failure is logged rather than thrown, which would cancel all the frames to come.
+     */
+    private void flushFrame() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "failed to update the user interface", e);
+        }
+    }
+
+    /**
+     * Stops flushing at the frame rate, after revealing all the pending changes.
+     */
+    public synchronized void stop() {
+        if (frames != null) {
+            frames.cancel(false);
+            frames = null;
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            ownExecutor = null;
+        }
+        Arrays.fill(revealTimes, 0);
+        lastReveal = 0;
+        flush(true);
+    }
+
+    /**
+     * Sends the changes since the last flush to the user interface.
+     * Card changes are revealed one after the other, tableDelayMillis apart, as the table animation; the tokens on
+     * a slot are shown once its card is.
+     */
+    public synchronized void flush() {
+        flush(false);
+    }
+
+    private void flush(boolean revealAll) {
+        TableSnapshot next = board.get();
+        if (next.version() == shownVersion && !pending)
+            return;
+        long now = System.nanoTime();
+        pending = false;
+        for (int slot = 0; slot < next.slots(); slot++) {
+            int card = next.cardAt(slot);
+            if (card != shownCards[slot]) {
+                if (revealTimes[slot] == 0 && !revealAll) {
+                    if (next.cardVersion(slot) != lastRevealVersion || lastReveal - now <= 0) {
+                        lastReveal = (lastReveal - now > 0 ? lastReveal : now) + revealDelayNanos;
+                        lastRevealVersion = next.cardVersion(slot);
+                    }
+                    revealTimes[slot] = lastReveal;
+                }
+                if (revealTimes[slot] - now > 0 && !revealAll) {
+                    pending = true;
+                    continue;
+                }
+                if (shownCards[slot] != Table.EMPTY) {
+                    ui.removeTokens(slot);
+                    Arrays.fill(shownTokens[slot], 0);
+                    if (card == Table.EMPTY)
+                        ui.removeCard(slot);
+                }
+                if (card != Table.EMPTY)
+                    ui.placeCard(card, slot);
+                shownCards[slot] = card;
+            }
+            revealTimes[slot] = 0;
+            for (int player = 0; player < next.players(); player++) {
+                long bit = 1L << player;
+                boolean shown = (shownTokens[slot][player / Long.SIZE] & bit) != 0;
+                if (next.hasToken(player, slot) && !shown) {
+                    ui.placeToken(player, slot);
+                    shownTokens[slot][player / Long.SIZE] |= bit;
+                } else if (!next.hasToken(player, slot) && shown) {
+                    ui.removeToken(player, slot);
+                    shownTokens[slot][player / Long.SIZE] &= ~bit;
+                }
+            }
+        }
+        shownVersion = next.version();
+    }
+}
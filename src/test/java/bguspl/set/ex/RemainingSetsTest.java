@@ -0,0 +1,158 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RemainingSetsTest {
+
+    private static final long SEED = 42;
+
+    /**
+     * Removes all the cards of a full deck in random orders, one card at a time, comparing the count after every
+     * removal with a brute-force count of the sets left among the cards in play.
+     */
+    private void assertCountsMatchRemovingCards(int featureCount, int featureSize, int orders) {
+        int deckSize = (int) Math.pow(featureSize, featureCount);
+        SetCatalogue catalogue = SetCatalogue.of(SetFinder.fullDeck(featureCount, featureSize), deckSize);
+        Random random = new Random(SEED);
+        for (int order = 0; order < orders; order++) {
+            RemainingSets remainingSets = new RemainingSets(catalogue, deckSize);
+            List<Integer> inPlay = allCards(deckSize);
+            assertCountMatches(featureCount, featureSize, inPlay, remainingSets);
+            Collections.shuffle(inPlay, random);
+            while (!inPlay.isEmpty()) {
+                remainingSets.remove(inPlay.remove(inPlay.size() - 1));
+                assertCountMatches(featureCount, featureSize, inPlay, remainingSets);
+            }
+        }
+    }
+
+    /**
+     * Plays random games on a full deck: like the dealer, collects a random legal set among the cards in play at
+     * a time, until none is left, comparing the count after every card removed with a brute-force count.
+     */
+    private void assertCountsMatchCollectingSets(int featureCount, int featureSize, int games) {
+        int deckSize = (int) Math.pow(featureSize, featureCount);
+        SetCatalogue catalogue = SetCatalogue.of(SetFinder.fullDeck(featureCount, featureSize), deckSize);
+        Random random = new Random(SEED);
+        for (int game = 0; game < games; game++) {
+            RemainingSets remainingSets = new RemainingSets(catalogue, deckSize);
+            collectSets(featureCount, featureSize, allCards(deckSize), remainingSets, random);
+        }
+    }
+
+    private static void collectSets(int featureCount, int featureSize, List<Integer> inPlay,
+                                    RemainingSets remainingSets, Random random) {
+        List<int[]> sets = findSets(featureCount, featureSize, inPlay);
+        while (!sets.isEmpty()) {
+            for (int card : sets.get(random.nextInt(sets.size()))) {
+                inPlay.remove(Integer.valueOf(card));
+                remainingSets.remove(card);
+                assertCountMatches(featureCount, featureSize, inPlay, remainingSets);
+            }
+            sets = findSets(featureCount, featureSize, inPlay);
+        }
+        assertFalse(remainingSets.hasSet());
+    }
+
+    private static List<Integer> allCards(int deckSize) {
+        List<Integer> cards = new ArrayList<>();
+        for (int card = 0; card < deckSize; card++)
+            cards.add(card);
+        return cards;
+    }
+
+    private static void assertCountMatches(int featureCount, int featureSize, List<Integer> inPlay,
+                                           RemainingSets remainingSets) {
+        int expected = findSets(featureCount, featureSize, inPlay).size();
+        assertEquals(expected, remainingSets.count(), "with " + inPlay.size() + " cards in play");
+        assertEquals(expected > 0, remainingSets.hasSet());
+    }
+
+    /**
+     * Finds the sets among the cards by checking every combination of featureSize cards against the features
+     * themselves, independently of SetFinder: in a full deck the features of a card are the digits of its id in
+     * base featureSize, and in a set every feature is either the same on all the cards or different on all of them.
+     */
+    private static List<int[]> findSets(int featureCount, int featureSize, List<Integer> cards) {
+        List<int[]> sets = new ArrayList<>();
+        findSets(featureCount, cards, new int[featureSize], 0, 0, sets);
+        return sets;
+    }
+
+    private static void findSets(int featureCount, List<Integer> cards, int[] chosen, int size, int from,
+                                 List<int[]> sets) {
+        if (size == chosen.length) {
+            if (isSet(featureCount, chosen))
+                sets.add(chosen.clone());
+            return;
+        }
+        for (int i = from; i <= cards.size() - (chosen.length - size); i++) {
+            chosen[size] = cards.get(i);
+            findSets(featureCount, cards, chosen, size + 1, i + 1, sets);
+        }
+    }
+
+    private static boolean isSet(int featureCount, int[] cards) {
+        int featureSize = cards.length;
+        int weight = 1;
+        for (int feature = 0; feature < featureCount; feature++, weight *= featureSize) {
+            boolean[] seen = new boolean[featureSize];
+            int distinct = 0;
+            for (int card : cards) {
+                int value = card / weight % featureSize;
+                if (!seen[value]) {
+                    seen[value] = true;
+                    distinct++;
+                }
+            }
+            if (distinct != 1 && distinct != featureSize)
+                return false;
+        }
+        return true;
+    }
+
+    @Test
+    void countMatchesBruteForceForClassicDeck() {
+        assertCountsMatchRemovingCards(4, 3, 5);
+    }
+
+    @Test
+    void countMatchesBruteForceForSetsOfFourCards() {
+        assertCountsMatchRemovingCards(3, 4, 1);
+    }
+
+    @Test
+    void countMatchesBruteForceInClassicGames() {
+        assertCountsMatchCollectingSets(4, 3, 5);
+    }
+
+    @Test
+    void countMatchesBruteForceInGamesWithSetsOfFourCards() {
+        assertCountsMatchCollectingSets(3, 4, 2);
+    }
+
+    @Test
+    void countMatchesBruteForceForUncataloguedDeck() {
+        int featureCount = 7;
+        int deckSize = (int) Math.pow(3, featureCount);
+        SetCatalogue catalogue = SetCatalogue.of(SetFinder.fullDeck(featureCount, 3), deckSize);
+        assertFalse(catalogue.isCatalogued());
+
+        Random random = new Random(SEED);
+        RemainingSets remainingSets = new RemainingSets(catalogue, deckSize);
+        List<Integer> inPlay = allCards(deckSize);
+        Collections.shuffle(inPlay, random);
+        while (inPlay.size() > 100)
+            remainingSets.remove(inPlay.remove(inPlay.size() - 1));
+        assertCountMatches(featureCount, 3, inPlay, remainingSets);
+        collectSets(featureCount, 3, inPlay, remainingSets, random);
+    }
+}